@@ -0,0 +1,56 @@
+package org.pacesys.kbop;
+
+/**
+ * Explicit owner of borrowed Objects.  Borrowing with a token (see {@link IKeyedObjectPool#borrow(BorrowToken, Object)}) makes the borrow re-entrant for
+ * that token rather than for the calling thread: borrowing a Key which is already held by the same token returns the held Object regardless of which
+ * thread makes the call.  This allows a unit of work to move between threads (executors, virtual threads, asynchronous continuations) while keeping
+ * re-entrant borrows, and costs nothing when re-entrancy is not needed.
+ *
+ * Tokens are compared by identity and are cheap to create, typically one token is created per unit of work.  A token is not thread-safe in the sense
+ * that two threads borrowing concurrently with the same token may both believe they own the same Object.
+ *
+ * @author Jeremy Unruh
+ */
+public final class BorrowToken {
+
+	private final String name;
+
+	private BorrowToken(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Creates a new unnamed token
+	 *
+	 * @return the borrow token
+	 */
+	public static BorrowToken create() {
+		return new BorrowToken(null);
+	}
+
+	/**
+	 * Creates a new token with a descriptive {@code name} used for diagnostics only
+	 *
+	 * @param name the name of the token
+	 * @return the borrow token
+	 */
+	public static BorrowToken create(String name) {
+		return new BorrowToken(name);
+	}
+
+	/**
+	 * @return the name of this token or null
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "BorrowToken [name=" + name + "]";
+	}
+
+}
@@ -0,0 +1,37 @@
+package org.pacesys.kbop;
+
+/**
+ * Determines the order in which borrowers waiting on a Key are served once an Object of the Key becomes available.  The policy orders waiters of the
+ * same priority, waiters of a higher priority are always served first (see {@link IKeyedObjectPool#borrow(Object, int, long, java.util.concurrent.TimeUnit)}).
+ * See {@link PoolConfig#fairness(FairnessPolicy)}.
+ *
+ * @author Jeremy Unruh
+ */
+public enum FairnessPolicy {
+
+	/**
+	 * Strict first in first out.  Waiters are served in the order they arrived, released Objects are handed directly to the longest waiting borrower
+	 * and a new borrower never overtakes a queued one.  Gives the most predictable wait times at the cost of a context switch per handoff.
+	 */
+	FIFO,
+
+	/**
+	 * The longest waiting borrower is woken, but a borrower arriving before it has run may take the Object first.  The woken waiter then queues again.
+	 * Keeps running threads busy and gives the best throughput.  This is the default.
+	 */
+	BARGING,
+
+	/**
+	 * Like {@link #BARGING} but the most recently queued waiter is woken first.  Its thread is the most likely to still be warm, the tail latency of
+	 * the waiters which have been queued the longest grows accordingly.
+	 */
+	LIFO,
+
+	/**
+	 * Earliest deadline first.  The waiter whose timeout expires first is served first, waiters without a timeout after all which have one.  A waiter
+	 * whose deadline has already passed is skipped, so Objects go to borrowers which can still use them rather than to those about to time out.
+	 * Borrowers arriving while others wait may barge like under {@link #BARGING}.
+	 */
+	EDF
+
+}
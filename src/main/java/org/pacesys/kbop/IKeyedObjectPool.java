@@ -1,8 +1,13 @@
 package org.pacesys.kbop;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import org.pacesys.kbop.PoolMetrics.KeyMetric;
 import org.pacesys.kbop.PoolMetrics.PoolMultiMetrics;
 
 /**
@@ -58,6 +63,159 @@ public interface IKeyedObjectPool<K, V> {
 	 */
 	IPooledObject<V> borrow(K key, long timeout, TimeUnit unit) throws TimeoutException, Exception;
 
+	/**
+	 * Borrows an Object like {@link #borrow(Object, long, TimeUnit)} with the specified {@code priority}.  Should the borrow have to wait it is served
+	 * before every waiter of the Key with a lower priority, waiters of the same priority are served in the order of the Pool's {@link FairnessPolicy}.
+	 * Borrows without a priority have priority 0.
+	 *
+	 * @param key the Pool Key used to lookup the Object to borrow
+	 * @param priority the priority of the borrow, higher values are served first
+	 * @param  timeout the maximum time to wait, 0 to wait indefinitely
+	 * @param unit the time unit of the timeout argument
+	 * @return the IPooledObject which is a wrapper for the borrowed Object
+	 * @throws TimeoutException if the Object did not become available within the specified timeout
+	 * @throws Exception if the thread was interrupted or an error occurred during the creation of a new Object
+	 */
+	IPooledObject<V> borrow(K key, int priority, long timeout, TimeUnit unit) throws TimeoutException, Exception;
+
+	/**
+	 * Borrows an Object on behalf of the specified {@code token} blocking until it is available.  See {@link #borrow(Object)}.  The borrow is re-entrant
+	 * for the token instead of the calling thread so the token may be passed between threads.
+	 *
+	 * @param token the owner of the borrow
+	 * @param key the Pool Key used to lookup the Object to borrow
+	 * @return the IPooledObject which is a wrapper for the borrowed Object
+	 * @throws IllegalStateException if the Pool has been shutdown
+	 * @throws Exception  if the thread was interrupted or an error occurred during the creation of a new Object which didn't exist in the Pool.
+	 */
+	IPooledObject<V> borrow(BorrowToken token, K key) throws Exception;
+
+	/**
+	 * Borrows an Object on behalf of the specified {@code token} blocking until it is available or the {@code timeout} has elapsed.  See
+	 * {@link #borrow(Object, long, TimeUnit)} and {@link #borrow(BorrowToken, Object)}.
+	 *
+	 * @param token the owner of the borrow
+	 * @param key the Pool Key used to lookup the Object to borrow
+	 * @param  timeout the maximum time to wait
+	 * @param unit the time unit of the timeout argument
+	 * @return the IPooledObject which is a wrapper for the borrowed Object
+	 * @throws TimeoutException if the wait timed out
+	 * @throws IllegalStateException if the Pool has been shutdown
+	 * @throws Exception if the thread was interrupted or an error occurred during the creation of a new Object which didn't exist in the Pool.
+	 */
+	IPooledObject<V> borrow(BorrowToken token, K key, long timeout, TimeUnit unit) throws TimeoutException, Exception;
+
+	/**
+	 * Borrows an Object on behalf of the specified {@code token} with the specified {@code priority}.  See {@link #borrow(Object, int, long, TimeUnit)}
+	 * and {@link #borrow(BorrowToken, Object)}.
+	 *
+	 * @param token the owner of the borrow
+	 * @param key the Pool Key used to lookup the Object to borrow
+	 * @param priority the priority of the borrow, higher values are served first
+	 * @param  timeout the maximum time to wait, 0 to wait indefinitely
+	 * @param unit the time unit of the timeout argument
+	 * @return the IPooledObject which is a wrapper for the borrowed Object
+	 * @throws TimeoutException if the Object did not become available within the specified timeout
+	 * @throws Exception if the thread was interrupted or an error occurred during the creation of a new Object
+	 */
+	IPooledObject<V> borrow(BorrowToken token, K key, int priority, long timeout, TimeUnit unit) throws TimeoutException, Exception;
+
+	/**
+	 * Borrows an Object from the Pool with the given Key only if one can be had right away.  Nothing is queued and no waiter is allocated, the call
+	 * returns null instead of blocking when the Object is borrowed by someone else.  If the Key has room for a new Object it is created by the calling
+	 * thread.  The borrow is re-entrant like {@link #borrow(Object)}.
+	 *
+	 * @param key the Pool Key used to lookup the Object to borrow
+	 * @return the IPooledObject which is a wrapper for the borrowed Object or null if none is available
+	 * @throws IllegalStateException if the Pool has been shutdown
+	 */
+	IPooledObject<V> tryBorrow(K key);
+
+	/**
+	 * Borrows an Object on behalf of the specified {@code token} only if one can be had right away.  See {@link #tryBorrow(Object)} and
+	 * {@link #borrow(BorrowToken, Object)}.
+	 *
+	 * @param token the owner of the borrow
+	 * @param key the Pool Key used to lookup the Object to borrow
+	 * @return the IPooledObject which is a wrapper for the borrowed Object or null if none is available
+	 * @throws IllegalArgumentException if the token is null
+	 * @throws IllegalStateException if the Pool has been shutdown
+	 */
+	IPooledObject<V> tryBorrow(BorrowToken token, K key);
+
+	/**
+	 * Asynchronously borrows an Object from the Pool with the given Key.  If the Object is available the returned future is already complete, otherwise
+	 * the borrow is queued and the future is completed by the thread which releases (or invalidates) an Object for the same Key.  No thread is blocked while 
+	 * the borrow is pending.  Any Object which has to be created is created by the thread completing the future, callbacks registered on the future run on that
+	 * thread as well unless an async variant is used.
+	 * 
+	 * Asynchronous borrows are not re-entrant, each completed future holds its own borrow which must be {@link #release(IPooledObject) released}.  
+	 * If the future is cancelled after the Object was obtained the Object is returned to the Pool.  The future waits indefinitely, see 
+	 * {@link #borrowAsync(Object, long, TimeUnit)} for a bounded wait.
+	 *
+	 * @param key the Pool Key used to lookup the Object to borrow
+	 * @return future completed with the IPooledObject, or exceptionally with an IllegalStateException if the Pool has been shutdown or the
+	 * error raised while creating a new Object
+	 */
+	CompletableFuture<IPooledObject<V>> borrowAsync(K key);
+
+	/**
+	 * Asynchronously borrows an Object from the Pool with the given Key.  See {@link #borrowAsync(Object)}.  If the Object does not become available within
+	 * the specified {@code timeout and unit} the future is completed exceptionally with a TimeoutException.
+	 *
+	 * @param key the Pool Key used to lookup the Object to borrow
+	 * @param timeout the maximum time to wait, 0 to wait indefinitely
+	 * @param unit the time unit of the timeout argument
+	 * @return future completed with the IPooledObject
+	 */
+	CompletableFuture<IPooledObject<V>> borrowAsync(K key, long timeout, TimeUnit unit);
+
+	/**
+	 * Creates Objects ahead of time so the first borrowers of the given {@code keys} don't pay for their creation.  Every key is topped up until it has
+	 * {@code perKey} idle Objects, bounded by the number of Objects the Pool allows per key.  The Objects are created in parallel on the common
+	 * {@link java.util.concurrent.ForkJoinPool}.  Waiters of a key receive its Objects as soon as they have been created.
+	 *
+	 * @param keys the keys to prewarm
+	 * @param perKey the number of idle Objects to create for every key
+	 * @return future completed once all Objects have been created, or exceptionally with the first error raised by the factory
+	 */
+	CompletableFuture<Void> prewarm(Collection<K> keys, int perKey);
+
+	/**
+	 * Creates Objects ahead of time on the specified {@code executor}.  See {@link #prewarm(Collection, int)}
+	 *
+	 * @param keys the keys to prewarm
+	 * @param perKey the number of idle Objects to create for every key
+	 * @param executor the executor the Objects are created on
+	 * @return future completed once all Objects have been created, or exceptionally with the first error raised by the factory
+	 */
+	CompletableFuture<Void> prewarm(Collection<K> keys, int perKey, Executor executor);
+
+	/**
+	 * Borrows one Object for each of the given {@code keys} as a single operation.  Either all Objects are borrowed or none: the Pool never holds
+	 * on to some of the Objects while waiting for the others, so batches sharing keys can't deadlock each other.  The keys are acquired in a canonical
+	 * order, the Pool's locks are taken once per attempt rather than once per key.  Duplicate keys are borrowed once.
+	 *
+	 * The borrowed Objects must be released, see {@link #releaseAll(Collection)}.
+	 *
+	 * @param keys the Pool Keys used to lookup the Objects to borrow
+	 * @param timeout the maximum time to wait for all Objects, 0 to wait indefinitely
+	 * @param unit the time unit of the timeout argument
+	 * @return the borrowed Objects by key, in acquisition order
+	 * @throws TimeoutException if the Objects did not all become available in time, nothing is borrowed in that case
+	 * @throws IllegalStateException if the Pool has been shutdown
+	 * @throws Exception if the thread was interrupted or an error occurred during the creation of a new Object, nothing is borrowed in that case
+	 */
+	Map<K, IPooledObject<V>> borrowAll(Collection<K> keys, long timeout, TimeUnit unit) throws TimeoutException, Exception;
+
+	/**
+	 * Releases all of the Borrowed Objects back into the Pool, typically the values returned by {@link #borrowAll(Collection, long, TimeUnit)}.  A failing
+	 * release does not prevent the remaining Objects from being released, the first failure is rethrown afterwards.
+	 *
+	 * @param borrowedObjects the objects to release
+	 */
+	void releaseAll(Collection<? extends IPooledObject<V>> borrowedObjects);
+
 	/**
 	 * Releases the Borrowed Object back into the Pool and makes it available for borrowing
 	 *
@@ -74,17 +232,34 @@ public interface IKeyedObjectPool<K, V> {
 	void invalidate(IPooledObject<V> borrowedObject);
 
 	/**
-	 * Clears the specified pool, removing all pooled instances corresponding to the given key.  Depending on the underlying Pool Implementation this
-	 * method call may be ignored.  
+	 * Clears the specified pool, removing all pooled instances corresponding to the given key.  Idle instances are removed immediately and destroyed in
+	 * the background so the caller and borrowers of other keys are never held up by the factory.  Borrowed instances are destroyed when they are released
+	 * or invalidated, they are never handed to another borrower.  The next borrow of the key creates a new instance.
 	 * @param key the key to clear
 	 */
 	void clear(K key);
 
+	/**
+	 * Evicts the idle instances of every key right away, regardless of how long they have been idle.  Each key keeps its configured minimum of idle
+	 * instances (see {@link PoolConfig#minIdlePerKey(int)}) and keys with waiters are skipped.  The evicted instances are destroyed in the background.
+	 * @return the number of instances evicted
+	 */
+	int evictIdle();
+
 	/**
 	 * Shuts down the current Pool stopping Allocations
 	 */
 	void shutdown();
 
+	/**
+	 * Returns a snapshot of the Pool wide metrics only: borrowed and waiting counts, the number of Keys, the lifecycle counters and, if recorded, the
+	 * latencies of the whole Pool.  Unlike {@code getPoolMetrics()} no per Key state is visited, every value is read from counters the Pool keeps up to
+	 * date as it goes, so the cost does not depend on the number of Keys and no lock is taken.
+	 *
+	 * @return PoolMetrics without per Key metrics or latencies
+	 */
+	PoolMetrics<K> getAggregateMetrics();
+
 	/**
 	 * Single Key to Multi Object Pool.  See {@link IKeyedObjectPool} for extended documentation
 	 * 
@@ -98,6 +273,41 @@ public interface IKeyedObjectPool<K, V> {
 		 * @return PoolMetrics
 		 */
 		PoolMultiMetrics<K> getPoolMetrics();
+
+		/**
+		 * Changes the maximum number of Objects per Key.  When growing, waiters of Keys which are at the previous limit are woken so they can create the
+		 * additional Objects.  When shrinking, idle Objects above the new limit are evicted right away and borrowed ones are destroyed once released.
+		 *
+		 * @param maxItemsPerKey the new maximum, at least 1
+		 */
+		void resize(int maxItemsPerKey);
+
+		/**
+		 * Reads the current metrics of a single Key without taking the lock
+		 *
+		 * @param key the Key
+		 * @return the Key's metrics or null if the Pool holds no Objects or waiters for the Key
+		 */
+		KeyMetric getKeyMetrics(K key);
+
+		/**
+		 * Copies the current metrics of every Key into the caller supplied {@code buffer}, as many as fit.  No lock is taken and nothing is allocated, each
+		 * Key's values are consistent in themselves but Keys are read one after the other.
+		 *
+		 * @param buffer the buffer to fill, cleared first
+		 * @return the number of Keys copied
+		 */
+		int fillKeyMetrics(KeyMetricsBuffer<K> buffer);
+
+		/**
+		 * Fills the caller supplied {@code buffer} with the Keys having the most waiters or borrowed Objects, highest first, bounded by the buffer's
+		 * capacity.  Keys without any are left out.  Like {@link #fillKeyMetrics(KeyMetricsBuffer)} no lock is taken and nothing is allocated.
+		 *
+		 * @param buffer the buffer to fill, cleared first
+		 * @param order the metric to rank the Keys by
+		 * @return the number of Keys copied
+		 */
+		int fillTopKeys(KeyMetricsBuffer<K> buffer, KeyMetricsBuffer.Order order);
 	}
 
 	/**
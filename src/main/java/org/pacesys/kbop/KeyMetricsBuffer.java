@@ -0,0 +1,158 @@
+package org.pacesys.kbop;
+
+/**
+ * Reusable, fixed capacity buffer the per Key metrics of a Multi Pool are copied into (see {@link IKeyedObjectPool.Multi#fillKeyMetrics(KeyMetricsBuffer)}
+ * and {@link IKeyedObjectPool.Multi#fillTopKeys(KeyMetricsBuffer, Order)}).  The metrics are held in parallel arrays allocated once, so a scraper which
+ * keeps its buffer around reads the metrics of any number of Keys without creating garbage.
+ *
+ * A buffer is not thread safe, every scraping thread should use its own.
+ *
+ * @param <K> the key type
+ * @author Jeremy Unruh
+ */
+public class KeyMetricsBuffer<K> {
+
+	/**
+	 * The metric the Keys of a top-N view are ranked by
+	 */
+	public enum Order {
+		/** the Keys with the most queued waiters first */
+		WAITING,
+		/** the Keys with the most borrowed Objects first */
+		BORROWED
+	}
+
+	private final Object[] keys;
+	private final int[] allocationSizes;
+	private final int[] borrowedCounts;
+	private final int[] waitingCounts;
+	private int size;
+	private int keyCount;
+
+	/**
+	 * Creates a new buffer
+	 *
+	 * @param capacity the maximum number of Keys the buffer holds
+	 */
+	public KeyMetricsBuffer(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be at least 1");
+		this.keys = new Object[capacity];
+		this.allocationSizes = new int[capacity];
+		this.borrowedCounts = new int[capacity];
+		this.waitingCounts = new int[capacity];
+	}
+
+	/**
+	 * Empties the buffer, invoked by the Pool before filling it
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++)
+			keys[i] = null;
+		size = 0;
+		keyCount = 0;
+	}
+
+	/**
+	 * Appends the metrics of a Key if the buffer has room left.  Invoked by the Pool while filling the buffer
+	 *
+	 * @param key the Key
+	 * @param allocationSize the number of Objects allocated for the Key
+	 * @param borrowedCount the number of borrowed Objects of the Key
+	 * @param waitingCount the number of waiters queued on the Key
+	 * @return true if the metrics have been added, false if the buffer is full
+	 */
+	public boolean add(K key, int allocationSize, int borrowedCount, int waitingCount) {
+		keyCount++;
+		if (size == keys.length)
+			return false;
+		set(size++, key, allocationSize, borrowedCount, waitingCount);
+		return true;
+	}
+
+	/**
+	 * Keeps the metrics of a Key if it ranks among the top {@link #capacity()} Keys offered so far by the specified {@code order}.  The buffer stays
+	 * sorted, highest first, and Keys with nothing to rank them by are skipped.  Invoked by the Pool while filling the buffer
+	 *
+	 * @param key the Key
+	 * @param allocationSize the number of Objects allocated for the Key
+	 * @param borrowedCount the number of borrowed Objects of the Key
+	 * @param waitingCount the number of waiters queued on the Key
+	 * @param order the metric to rank by
+	 */
+	public void offer(K key, int allocationSize, int borrowedCount, int waitingCount, Order order) {
+		keyCount++;
+		int[] ranks = (order == Order.WAITING) ? waitingCounts : borrowedCounts;
+		int rank = (order == Order.WAITING) ? waitingCount : borrowedCount;
+		if (rank == 0 || (size == keys.length && rank <= ranks[size - 1]))
+			return;
+		int index = (size < keys.length) ? size++ : size - 1;
+		while (index > 0 && ranks[index - 1] < rank) {
+			set(index, keys[index - 1], allocationSizes[index - 1], borrowedCounts[index - 1], waitingCounts[index - 1]);
+			index--;
+		}
+		set(index, key, allocationSize, borrowedCount, waitingCount);
+	}
+
+	private void set(int index, Object key, int allocationSize, int borrowedCount, int waitingCount) {
+		keys[index] = key;
+		allocationSizes[index] = allocationSize;
+		borrowedCounts[index] = borrowedCount;
+		waitingCounts[index] = waitingCount;
+	}
+
+	/**
+	 * @return the maximum number of Keys the buffer holds
+	 */
+	public int capacity() {
+		return keys.length;
+	}
+
+	/**
+	 * @return the number of Keys held
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of Keys the Pool offered while filling the buffer, larger than {@link #size()} if Keys were left out
+	 */
+	public int getKeyCount() {
+		return keyCount;
+	}
+
+	/**
+	 * @return true if Keys were left out, either because the buffer was full or because they did not rank among the top Keys
+	 */
+	public boolean isTruncated() {
+		return keyCount > size;
+	}
+
+	@SuppressWarnings("unchecked")
+	public K getKey(int index) {
+		checkIndex(index);
+		return (K) keys[index];
+	}
+
+	public int getAllocationSize(int index) {
+		checkIndex(index);
+		return allocationSizes[index];
+	}
+
+	public int getBorrowedCount(int index) {
+		checkIndex(index);
+		return borrowedCounts[index];
+	}
+
+	public int getWaitingCount(int index) {
+		checkIndex(index);
+		return waitingCounts[index];
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+	}
+
+}
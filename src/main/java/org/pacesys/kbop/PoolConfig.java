@@ -0,0 +1,401 @@
+package org.pacesys.kbop;
+
+import java.io.Serializable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Optional tuning applied to a Pool when it is created via {@link Pools}.  Every option has a sensible default so only the values which
+ * need to differ have to be set.  The configuration is read once when the Pool is created, changing it afterwards has no effect on that Pool.
+ *
+ * @author Jeremy Unruh
+ */
+public class PoolConfig implements Serializable {
+
+	private static final long serialVersionUID = -6893260472035960871L;
+
+	private int lockStripes;
+	private boolean directHandoff;
+	private boolean threadOwnership = true;
+	private boolean threadAffinity;
+	private FairnessPolicy fairness = FairnessPolicy.BARGING;
+	private boolean recordLatencies;
+	private boolean recordKeyLatencies;
+	private long idleTimeoutMillis;
+	private long evictionIntervalMillis;
+	private int evictionBatchSize = 256;
+	private int minIdlePerKey;
+	private int maxTotal;
+	private transient Executor lifecycleExecutor;
+	private transient PoolListener<?> listener;
+	private String jmxName;
+
+	/**
+	 * Creates a new configuration with all default values
+	 *
+	 * @return the pool config
+	 */
+	public static PoolConfig get() {
+		return new PoolConfig();
+	}
+
+	/**
+	 * The number of locks the Pool's keys are striped across.  Keys hashing to different stripes never block each other so a higher value
+	 * reduces contention across unrelated keys at the cost of a little memory.  The value is rounded up to the next power of two.  A value
+	 * of {@code 1} gives a single pool wide lock.  Defaults to four stripes per available processor (minimum 16).
+	 *
+	 * @param lockStripes the number of lock stripes
+	 * @return the pool config
+	 */
+	public PoolConfig lockStripes(int lockStripes) {
+		if (lockStripes < 1)
+			throw new IllegalArgumentException("lockStripes must be greater than 0");
+		this.lockStripes = lockStripes;
+		return this;
+	}
+
+	/**
+	 * Gets the number of lock stripes or 0 if the default should be used
+	 *
+	 * @return the lock stripes
+	 */
+	public int getLockStripes() {
+		return this.lockStripes;
+	}
+
+	/**
+	 * When enabled a released object is handed straight to the longest waiting borrower of the same key rather than being returned to the Pool and
+	 * the waiter woken to borrow it again.  The waiter receives the object without re-acquiring any lock and a newly arriving borrower can never
+	 * take the object ahead of it.  Defaults to {@code false}.
+	 *
+	 * @param directHandoff true to hand released objects directly to waiters
+	 * @return the pool config
+	 */
+	public PoolConfig directHandoff(boolean directHandoff) {
+		this.directHandoff = directHandoff;
+		return this;
+	}
+
+	/**
+	 * Determines if released objects are handed directly to waiters
+	 *
+	 * @return true if direct handoff is enabled
+	 */
+	public boolean isDirectHandoff() {
+		return this.directHandoff;
+	}
+
+	/**
+	 * Determines whether borrows made without a {@link BorrowToken} are owned by the calling thread.  When enabled (the default) a thread borrowing a Key
+	 * it already holds receives the same Object again.  When disabled such borrows are not tracked and never re-entrant, which is the recommended setting
+	 * for virtual threads or any other model where a unit of work is not bound to one thread.  Borrows made with a token are always owned by the token.
+	 *
+	 * @param threadOwnership true to track the owning thread of borrows made without a token
+	 * @return the pool config
+	 */
+	public PoolConfig threadOwnership(boolean threadOwnership) {
+		this.threadOwnership = threadOwnership;
+		return this;
+	}
+
+	/**
+	 * Determines if borrows made without a token are owned by the calling thread
+	 *
+	 * @return true if thread ownership is enabled
+	 */
+	public boolean isThreadOwnership() {
+		return this.threadOwnership;
+	}
+
+	/**
+	 * Multi Pools only: each thread remembers the Object it last released per Key and reclaims it with a single compare and set on its next borrow of
+	 * the Key, without taking the lock or touching the Key's shared list of available Objects.  The remembered Object stays available to every other
+	 * thread, a borrower which finds nothing else free simply takes it.  Keeping a thread on the same Object reduces cache traffic between cores and for
+	 * connection like Objects keeps the server side state of the connection warm.  Borrows made with a {@link BorrowToken} don't use the affinity.
+	 * Defaults to {@code false}.
+	 *
+	 * @param threadAffinity true to let threads reclaim the Object they released last
+	 * @return the pool config
+	 */
+	public PoolConfig threadAffinity(boolean threadAffinity) {
+		this.threadAffinity = threadAffinity;
+		return this;
+	}
+
+	/**
+	 * Determines if threads reclaim the Object they released last
+	 *
+	 * @return true if thread affinity is enabled
+	 */
+	public boolean isThreadAffinity() {
+		return this.threadAffinity;
+	}
+
+	/**
+	 * The order in which borrowers waiting on a Key are served, see {@link FairnessPolicy}.  {@link FairnessPolicy#FIFO} suits latency sensitive pools, it
+	 * implies {@link #directHandoff(boolean)} and stops new borrowers from taking an Object while others are queued for its Key.  Borrows of several
+	 * Keys at once via {@code borrowAll} always barge.  Defaults to {@link FairnessPolicy#BARGING}.
+	 *
+	 * @param fairness the fairness policy
+	 * @return the pool config
+	 * @throws IllegalArgumentException if {@code fairness} is null
+	 */
+	public PoolConfig fairness(FairnessPolicy fairness) {
+		if (fairness == null)
+			throw new IllegalArgumentException("fairness must not be null");
+		this.fairness = fairness;
+		return this;
+	}
+
+	/**
+	 * Gets the order in which waiting borrowers are served
+	 *
+	 * @return the fairness policy
+	 */
+	public FairnessPolicy getFairness() {
+		return this.fairness;
+	}
+
+	/**
+	 * Records how long borrowers wait, how long Objects are held and how long the factory takes to create, activate and destroy Objects in lock free
+	 * histograms, reported by {@link PoolMetrics#getLatencies()}.  Costs two reads of {@link System#nanoTime()} and a few atomic adds per borrow and
+	 * release.  Defaults to {@code false}.
+	 *
+	 * @param recordLatencies true to record latencies for the Pool
+	 * @return the pool config
+	 */
+	public PoolConfig recordLatencies(boolean recordLatencies) {
+		this.recordLatencies = recordLatencies;
+		return this;
+	}
+
+	/**
+	 * Determines if latencies are recorded for the Pool
+	 *
+	 * @return true if latencies are recorded, also when only enabled per key
+	 */
+	public boolean isRecordLatencies() {
+		return this.recordLatencies || this.recordKeyLatencies;
+	}
+
+	/**
+	 * Records the latencies of {@link #recordLatencies(boolean)} per Key as well, reported by {@link PoolMetrics#getKeyLatencies(Object)}.  Every Key
+	 * holding Objects keeps its own histograms of a few kilobytes, so this suits Pools with a moderate number of Keys.  Implies
+	 * {@link #recordLatencies(boolean)}.  Defaults to {@code false}.
+	 *
+	 * @param recordKeyLatencies true to record latencies per Key
+	 * @return the pool config
+	 */
+	public PoolConfig recordKeyLatencies(boolean recordKeyLatencies) {
+		this.recordKeyLatencies = recordKeyLatencies;
+		return this;
+	}
+
+	/**
+	 * Determines if latencies are recorded per Key
+	 *
+	 * @return true if latencies are recorded per Key
+	 */
+	public boolean isRecordKeyLatencies() {
+		return this.recordKeyLatencies;
+	}
+
+	/**
+	 * The time an Object may sit idle in the Pool before it is destroyed by the background evictor.  The evictor only runs when a timeout has been set,
+	 * by default idle Objects are kept until the Pool is shutdown.  Borrowed Objects are never evicted.
+	 *
+	 * @param timeout the idle timeout, 0 to disable eviction
+	 * @param unit the time unit of the timeout argument
+	 * @return the pool config
+	 */
+	public PoolConfig idleTimeout(long timeout, TimeUnit unit) {
+		if (timeout < 0)
+			throw new IllegalArgumentException("idleTimeout must not be negative");
+		this.idleTimeoutMillis = unit.toMillis(timeout);
+		return this;
+	}
+
+	/**
+	 * Gets the idle timeout in milliseconds or 0 if eviction is disabled
+	 *
+	 * @return the idle timeout in milliseconds
+	 */
+	public long getIdleTimeoutMillis() {
+		return this.idleTimeoutMillis;
+	}
+
+	/**
+	 * The delay between two eviction sweeps over all keys of the Pool.  An idle Object is therefore destroyed at most the idle timeout plus this
+	 * interval after it was released.  Defaults to the idle timeout.
+	 *
+	 * @param interval the delay between sweeps
+	 * @param unit the time unit of the interval argument
+	 * @return the pool config
+	 */
+	public PoolConfig evictionInterval(long interval, TimeUnit unit) {
+		if (interval < 1)
+			throw new IllegalArgumentException("evictionInterval must be greater than 0");
+		this.evictionIntervalMillis = unit.toMillis(interval);
+		return this;
+	}
+
+	/**
+	 * Gets the delay between eviction sweeps in milliseconds
+	 *
+	 * @return the eviction interval in milliseconds
+	 */
+	public long getEvictionIntervalMillis() {
+		return (this.evictionIntervalMillis > 0) ? this.evictionIntervalMillis : this.idleTimeoutMillis;
+	}
+
+	/**
+	 * The number of keys the evictor examines in one go before giving up the scheduler thread.  A sweep over a Pool with many keys is split into
+	 * slices of this size, every key is examined under its own short lock hold so borrowers are never blocked for more than a single key.
+	 * Defaults to 256.
+	 *
+	 * @param evictionBatchSize the number of keys per slice
+	 * @return the pool config
+	 */
+	public PoolConfig evictionBatchSize(int evictionBatchSize) {
+		if (evictionBatchSize < 1)
+			throw new IllegalArgumentException("evictionBatchSize must be greater than 0");
+		this.evictionBatchSize = evictionBatchSize;
+		return this;
+	}
+
+	/**
+	 * Gets the number of keys examined per eviction slice
+	 *
+	 * @return the eviction batch size
+	 */
+	public int getEvictionBatchSize() {
+		return this.evictionBatchSize;
+	}
+
+	/**
+	 * The number of idle Objects the Pool tries to keep available for every key it has seen.  Once a key has been borrowed the Pool creates Objects in
+	 * the background until the key has this many idle Objects (bounded by the per key maximum), and tops it up again after an Object of the key has been
+	 * invalidated.  The idle evictor never evicts a key below this value.  Defaults to 0.
+	 *
+	 * @param minIdlePerKey the minimum number of idle Objects per key
+	 * @return the pool config
+	 */
+	public PoolConfig minIdlePerKey(int minIdlePerKey) {
+		if (minIdlePerKey < 0)
+			throw new IllegalArgumentException("minIdlePerKey must not be negative");
+		this.minIdlePerKey = minIdlePerKey;
+		return this;
+	}
+
+	/**
+	 * Gets the minimum number of idle Objects per key
+	 *
+	 * @return the min idle per key
+	 */
+	public int getMinIdlePerKey() {
+		return this.minIdlePerKey;
+	}
+
+	/**
+	 * The maximum number of Objects the Pool holds across all keys, idle and borrowed.  When the limit is reached and a key needs a new Object the least
+	 * recently used idle Object of another key is destroyed to make room.  If no Object is idle the borrower waits until an Object is released or destroyed.
+	 * Defaults to 0 which only limits the Objects per key.
+	 *
+	 * @param maxTotal the maximum number of Objects, 0 for no global limit
+	 * @return the pool config
+	 */
+	public PoolConfig maxTotal(int maxTotal) {
+		if (maxTotal < 0)
+			throw new IllegalArgumentException("maxTotal must not be negative");
+		this.maxTotal = maxTotal;
+		return this;
+	}
+
+	/**
+	 * Gets the maximum number of Objects across all keys or 0 if there is no global limit
+	 *
+	 * @return the max total
+	 */
+	public int getMaxTotal() {
+		return this.maxTotal;
+	}
+
+	/**
+	 * The executor the factory's passivate and destroy callbacks are run on.  Releasing or invalidating an Object then returns immediately, a released
+	 * Object becomes available to other borrowers once it has been passivated.  If passivating fails the Object is destroyed.  By default the callbacks
+	 * run on the releasing thread, never while holding a Pool lock.  The executor is not serialized with the configuration.
+	 *
+	 * @param lifecycleExecutor the executor, null to run the callbacks on the releasing thread
+	 * @return the pool config
+	 */
+	public PoolConfig lifecycleExecutor(Executor lifecycleExecutor) {
+		this.lifecycleExecutor = lifecycleExecutor;
+		return this;
+	}
+
+	/**
+	 * Gets the executor for passivate and destroy callbacks or null if they run on the releasing thread
+	 *
+	 * @return the lifecycle executor
+	 */
+	public Executor getLifecycleExecutor() {
+		return this.lifecycleExecutor;
+	}
+
+	/**
+	 * The listener the Pool's events are delivered to, see {@link PoolListener} for how they are delivered.  Events are delivered on the lifecycle
+	 * executor if one is configured, otherwise on the common fork join pool.  Without a listener, the default, the Pool creates no events at all.  The
+	 * listener is not serialized with the configuration.
+	 *
+	 * @param listener the listener, null for none
+	 * @return the pool config
+	 */
+	public PoolConfig listener(PoolListener<?> listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	/**
+	 * Gets the listener the Pool's events are delivered to or null if there is none
+	 *
+	 * @return the listener
+	 */
+	public PoolListener<?> getListener() {
+		return this.listener;
+	}
+
+	/**
+	 * Registers a {@link PoolMXBean} for Pools created via {@link Pools} with the platform MBean server under
+	 * {@code org.pacesys.kbop:type=KeyedObjectPool,name=<jmxName>}.  The bean is unregistered when the Pool is shutdown.  Defaults to null which
+	 * registers nothing.
+	 *
+	 * @param jmxName the name of the Pool's MBean, unique within the JVM, or null to not register one
+	 * @return the pool config
+	 */
+	public PoolConfig jmxName(String jmxName) {
+		this.jmxName = jmxName;
+		return this;
+	}
+
+	/**
+	 * Gets the name the Pool's MBean is registered under or null if none is registered
+	 *
+	 * @return the JMX name
+	 */
+	public String getJmxName() {
+		return this.jmxName;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "PoolConfig [lockStripes=" + this.lockStripes + ", directHandoff=" + this.directHandoff + ", threadOwnership=" + this.threadOwnership
+				+ ", threadAffinity=" + this.threadAffinity + ", fairness=" + this.fairness + ", recordLatencies=" + this.recordLatencies
+				+ ", recordKeyLatencies=" + this.recordKeyLatencies + ", idleTimeoutMillis=" + this.idleTimeoutMillis + ", evictionIntervalMillis=" + this.evictionIntervalMillis
+				+ ", evictionBatchSize=" + this.evictionBatchSize + ", minIdlePerKey=" + this.minIdlePerKey + ", maxTotal=" + this.maxTotal
+				+ ", lifecycleExecutor=" + this.lifecycleExecutor + ", listener=" + this.listener + ", jmxName=" + this.jmxName + "]";
+	}
+
+}
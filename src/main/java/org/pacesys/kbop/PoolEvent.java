@@ -0,0 +1,70 @@
+package org.pacesys.kbop;
+
+/**
+ * Something which happened in a Pool, delivered to a {@link PoolListener} some time after the fact.
+ *
+ * @param <K> the key type
+ * @author Jeremy Unruh
+ */
+public class PoolEvent<K> {
+
+	/**
+	 * The kind of event and the meaning of its {@link PoolEvent#getDurationNanos() duration}
+	 */
+	public enum Type {
+		/** an Object was handed to a borrower, the duration is the time the borrow took, 0 if the Object was taken without the lock */
+		BORROWED,
+		/** a borrowed Object was released, the duration is the time it was held */
+		RELEASED,
+		/** a borrowed Object was invalidated, the duration is the time it was held */
+		INVALIDATED,
+		/** the factory created an Object, the duration is the time the factory took */
+		CREATED,
+		/** the factory destroyed an Object, the duration is the time the factory took */
+		DESTROYED,
+		/** a borrow gave up waiting for an Object, the duration is the time it waited */
+		TIMED_OUT,
+		/** a borrow which could not be served right away finished waiting, whatever the outcome, the duration is the time it waited */
+		WAITED
+	}
+
+	private final Type type;
+	private final K key;
+	private final long timestamp;
+	private final long durationNanos;
+
+	public PoolEvent(Type type, K key, long timestamp, long durationNanos) {
+		this.type = type;
+		this.key = key;
+		this.timestamp = timestamp;
+		this.durationNanos = durationNanos;
+	}
+
+	public Type getType() {
+		return this.type;
+	}
+
+	public K getKey() {
+		return this.key;
+	}
+
+	/**
+	 * @return the time the event happened in milliseconds since the epoch, the end of the period measured by the duration
+	 */
+	public long getTimestamp() {
+		return this.timestamp;
+	}
+
+	/**
+	 * @return the duration in nanoseconds, see {@link Type}
+	 */
+	public long getDurationNanos() {
+		return this.durationNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "PoolEvent [type=" + this.type + ", key=" + this.key + ", timestamp=" + this.timestamp + ", durationNanos=" + this.durationNanos + "]";
+	}
+
+}
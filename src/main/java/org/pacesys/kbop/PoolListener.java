@@ -0,0 +1,25 @@
+package org.pacesys.kbop;
+
+import java.util.List;
+
+/**
+ * Receives the events of a Pool, registered via {@link PoolConfig#listener(PoolListener)}.
+ *
+ * Events are not delivered on the thread which caused them.  The Pool queues them without locking and hands them over in batches, in the order they
+ * were queued, from a background thread shortly afterwards.  Batches of one Pool are never delivered concurrently.  A listener which falls far behind
+ * loses events rather than slowing down the Pool, the number lost is passed along with the next batch.  A Pool without a listener does not create events.
+ *
+ * @param <K> the key type
+ * @author Jeremy Unruh
+ */
+public interface PoolListener<K> {
+
+	/**
+	 * Invoked with the next batch of events.  Exceptions thrown are ignored
+	 *
+	 * @param events the events in the order they were queued, only valid for the duration of the call
+	 * @param dropped the number of events discarded since the previous batch because too many were pending
+	 */
+	void onEvents(List<PoolEvent<K>> events, long dropped);
+
+}
@@ -0,0 +1,149 @@
+package org.pacesys.kbop;
+
+import org.pacesys.kbop.PoolMetrics.KeyMetric;
+import org.pacesys.kbop.PoolMetrics.LatencyMetric;
+
+/**
+ * Management interface of a Pool, registered with the platform MBean server when a JMX name is configured (see {@link PoolConfig#jmxName(String)}).
+ *
+ * Every attribute is read from the counters and histograms the Pool keeps up to date lock free, polling never takes a Pool lock.  Only the counter
+ * and latency attributes are O(1) though, building a top-N view scans every Key of the Pool, and so does looking up a Key which is not a String by name,
+ * both cost O(Keys).  Keys are addressed by their {@code toString()} form.
+ *
+ * @author Jeremy Unruh
+ */
+public interface PoolMXBean {
+
+	/**
+	 * @return the number of currently borrowed Objects
+	 */
+	int getBorrowedCount();
+
+	/**
+	 * @return the number of borrowers currently waiting for an Object
+	 */
+	int getWaitingCount();
+
+	/**
+	 * @return the number of Keys the Pool holds Objects or waiters for
+	 */
+	int getKeyCount();
+
+	/**
+	 * @return the maximum number of Objects per Key
+	 */
+	int getMaxObjectsPerKey();
+
+	/**
+	 * @return the number of Objects handed to borrowers since the Pool was created
+	 * @see PoolMetrics.Counters#getBorrows()
+	 */
+	long getBorrows();
+
+	/**
+	 * @return the number of borrowed Objects released back into the Pool
+	 */
+	long getReleases();
+
+	/**
+	 * @return the number of borrowed Objects invalidated
+	 */
+	long getInvalidations();
+
+	/**
+	 * @return the number of Objects created by the factory
+	 */
+	long getCreates();
+
+	/**
+	 * @return the number of Objects destroyed by the factory
+	 */
+	long getDestroys();
+
+	/**
+	 * @return the number of borrows which timed out
+	 */
+	long getTimeouts();
+
+	/**
+	 * @return the number of Objects activated by the factory
+	 */
+	long getActivations();
+
+	/**
+	 * @return the number of Objects passivated by the factory
+	 */
+	long getPassivations();
+
+	/**
+	 * @return the number of interrupted or cancelled waits
+	 */
+	long getCancelledWaits();
+
+	/**
+	 * @return the wait time distribution or null if latencies are not recorded (see {@link PoolConfig#recordLatencies(boolean)})
+	 */
+	LatencyMetric getWaitLatency();
+
+	/**
+	 * @return the hold time distribution or null if latencies are not recorded
+	 */
+	LatencyMetric getHoldLatency();
+
+	/**
+	 * @return the create time distribution or null if latencies are not recorded
+	 */
+	LatencyMetric getCreateLatency();
+
+	/**
+	 * @return the activate time distribution or null if latencies are not recorded
+	 */
+	LatencyMetric getActivateLatency();
+
+	/**
+	 * @return the destroy time distribution or null if latencies are not recorded
+	 */
+	LatencyMetric getDestroyLatency();
+
+	/**
+	 * @return the Keys with the most waiters, highest first, at most 10.  Scans every Key, empty for a Single Pool
+	 */
+	String[] getTopKeysByWaiting();
+
+	/**
+	 * @return the Keys with the most borrowed Objects, highest first, at most 10.  Scans every Key, empty for a Single Pool
+	 */
+	String[] getTopKeysByBorrowed();
+
+	/**
+	 * Reads the metrics of a single Key of a Multi Pool
+	 *
+	 * @param key the Key's {@code toString()} form
+	 * @return the Key's metrics or null if the Key is unknown or this is a Single Pool
+	 */
+	KeyMetric keyMetrics(String key);
+
+	/**
+	 * Clears a Key, see {@link IKeyedObjectPool#clear(Object)}
+	 *
+	 * @param key the Key's {@code toString()} form
+	 * @return true if the Key was found and cleared
+	 */
+	boolean clear(String key);
+
+	/**
+	 * Evicts the idle Objects of every Key now, see {@link IKeyedObjectPool#evictIdle()}
+	 *
+	 * @return the number of Objects evicted
+	 */
+	int evictIdle();
+
+	/**
+	 * Changes the maximum number of Objects per Key of a Multi Pool, see {@link IKeyedObjectPool.Multi#resize(int)}
+	 *
+	 * @param maxObjectsPerKey the new maximum
+	 * @throws UnsupportedOperationException for a Single Pool
+	 */
+	void resize(int maxObjectsPerKey);
+
+}
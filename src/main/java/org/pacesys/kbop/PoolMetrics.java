@@ -18,6 +18,9 @@ public class PoolMetrics<K> implements Serializable {
 	private int maxObjectsPerKey;
 	private int keyCount;
 	private Date collectedDate;
+	private Counters counters;
+	private Latencies latencies;
+	private Map<PoolKey<K>, Latencies> keyLatencies;
 
 	/**
 	 * Instantiates a new pool metrics.
@@ -28,11 +31,30 @@ public class PoolMetrics<K> implements Serializable {
 	 * @param keyCount the key count
 	 */
 	public PoolMetrics(int borrowedCount, int waitingCount, int maxObjectsPerKey, int keyCount) {
+		this(borrowedCount, waitingCount, maxObjectsPerKey, keyCount, null, null, null);
+	}
+
+	/**
+	 * Instantiates a new pool metrics.
+	 *
+	 * @param borrowedCount the borrowed count
+	 * @param waitingCount the waiting count
+	 * @param maxObjectsPerKey the max objects per key
+	 * @param keyCount the key count
+	 * @param counters the lifecycle event counters or null if not available
+	 * @param latencies the latencies of the pool or null if not recorded
+	 * @param keyLatencies the latencies per key or null if not recorded
+	 */
+	public PoolMetrics(int borrowedCount, int waitingCount, int maxObjectsPerKey, int keyCount, Counters counters, Latencies latencies,
+			Map<PoolKey<K>, Latencies> keyLatencies) {
 		super();
 		this.borrowedCount = borrowedCount;
 		this.waitingCount = waitingCount;
 		this.maxObjectsPerKey = maxObjectsPerKey;
 		this.keyCount = keyCount;
+		this.counters = counters;
+		this.latencies = latencies;
+		this.keyLatencies = keyLatencies;
 		this.collectedDate = new Date();
 	}
 
@@ -80,6 +102,36 @@ public class PoolMetrics<K> implements Serializable {
 		return this.collectedDate;
 	}
 
+	/**
+	 * The number of lifecycle events since the Pool was created.  The counts only ever grow, rates are computed from the difference between two
+	 * snapshots.
+	 *
+	 * @return the counters
+	 */
+	public Counters getCounters() {
+		return this.counters;
+	}
+
+	/**
+	 * The latency distributions of the whole Pool since it was created.  Only recorded if enabled via {@link PoolConfig#recordLatencies(boolean)}
+	 *
+	 * @return the latencies or null if they are not recorded
+	 */
+	public Latencies getLatencies() {
+		return this.latencies;
+	}
+
+	/**
+	 * The latency distributions of a single Key.  Only recorded if enabled via {@link PoolConfig#recordKeyLatencies(boolean)}.  The history of a Key is
+	 * dropped once the Pool holds no Objects for it anymore.
+	 *
+	 * @param key the Pool Key to query latencies for
+	 * @return the latencies or null if they are not recorded or the Key is unknown
+	 */
+	public Latencies getKeyLatencies(K key) {
+		return (keyLatencies != null) ? keyLatencies.get(PoolKey.lookup(key)) : null;
+	}
+
 
 	/**
 	 * {@inheritDoc}
@@ -88,7 +140,7 @@ public class PoolMetrics<K> implements Serializable {
 	public String toString() {
 		return "PoolMetrics [collectedDate=" + this.collectedDate + ", borrowedCount=" + this.borrowedCount
 				+ ", waitingCount=" + this.waitingCount + ", keyCount=" + this.keyCount + ", maxObjectsPerKey="
-				+ this.maxObjectsPerKey + "]";
+				+ this.maxObjectsPerKey + ", counters=" + this.counters + ", latencies=" + this.latencies + "]";
 	}
 
 	/**
@@ -100,7 +152,12 @@ public class PoolMetrics<K> implements Serializable {
 		private Map<PoolKey<K>, KeyMetric> keyMetrics;
 
 		public PoolMultiMetrics(int borrowedCount, int waitingCount, int maxObjectsPerKey, Map<PoolKey<K>, KeyMetric> keyMetrics) {
-			super(borrowedCount, waitingCount, maxObjectsPerKey, keyMetrics.size());
+			this(borrowedCount, waitingCount, maxObjectsPerKey, keyMetrics, null, null, null);
+		}
+
+		public PoolMultiMetrics(int borrowedCount, int waitingCount, int maxObjectsPerKey, Map<PoolKey<K>, KeyMetric> keyMetrics, Counters counters,
+				Latencies latencies, Map<PoolKey<K>, Latencies> keyLatencies) {
+			super(borrowedCount, waitingCount, maxObjectsPerKey, keyMetrics.size(), counters, latencies, keyLatencies);
 			this.keyMetrics = keyMetrics;
 		}
 
@@ -161,4 +218,231 @@ public class PoolMetrics<K> implements Serializable {
 
 	}
 
+	/**
+	 * Monotonic counts of the lifecycle events of a Pool
+	 */
+	public static class Counters implements Serializable {
+
+		private static final long serialVersionUID = -1406231652866330419L;
+		private long borrows;
+		private long releases;
+		private long invalidations;
+		private long creates;
+		private long destroys;
+		private long timeouts;
+		private long activations;
+		private long passivations;
+		private long cancelledWaits;
+
+		public Counters(long borrows, long releases, long invalidations, long creates, long destroys, long timeouts, long activations, long passivations,
+				long cancelledWaits) {
+			super();
+			this.borrows = borrows;
+			this.releases = releases;
+			this.invalidations = invalidations;
+			this.creates = creates;
+			this.destroys = destroys;
+			this.timeouts = timeouts;
+			this.activations = activations;
+			this.passivations = passivations;
+			this.cancelledWaits = cancelledWaits;
+		}
+
+		/**
+		 * @return the number of Objects handed to borrowers, re-entrant borrows included
+		 */
+		public long getBorrows() {
+			return this.borrows;
+		}
+
+		/**
+		 * @return the number of borrowed Objects released back into the Pool
+		 */
+		public long getReleases() {
+			return this.releases;
+		}
+
+		/**
+		 * @return the number of borrowed Objects invalidated and removed from the Pool
+		 */
+		public long getInvalidations() {
+			return this.invalidations;
+		}
+
+		/**
+		 * @return the number of Objects created by the factory
+		 */
+		public long getCreates() {
+			return this.creates;
+		}
+
+		/**
+		 * @return the number of Objects destroyed by the factory, whether invalidated, evicted or cleared
+		 */
+		public long getDestroys() {
+			return this.destroys;
+		}
+
+		/**
+		 * @return the number of borrows which timed out waiting for an Object
+		 */
+		public long getTimeouts() {
+			return this.timeouts;
+		}
+
+		/**
+		 * @return the number of Objects activated by the factory
+		 */
+		public long getActivations() {
+			return this.activations;
+		}
+
+		/**
+		 * @return the number of Objects passivated by the factory
+		 */
+		public long getPassivations() {
+			return this.passivations;
+		}
+
+		/**
+		 * @return the number of waits abandoned without an Object other than by timing out: interrupted borrows and cancelled asynchronous borrows
+		 */
+		public long getCancelledWaits() {
+			return this.cancelledWaits;
+		}
+
+		@Override
+		public String toString() {
+			return "Counters [borrows=" + this.borrows + ", releases=" + this.releases + ", invalidations=" + this.invalidations + ", creates="
+					+ this.creates + ", destroys=" + this.destroys + ", timeouts=" + this.timeouts + ", activations=" + this.activations
+					+ ", passivations=" + this.passivations + ", cancelledWaits=" + this.cancelledWaits + "]";
+		}
+
+	}
+
+	/**
+	 * The latency distributions recorded by a Pool, either for the whole Pool or for a single Key
+	 */
+	public static class Latencies implements Serializable {
+
+		private static final long serialVersionUID = 3526519218870421687L;
+		private LatencyMetric wait;
+		private LatencyMetric hold;
+		private LatencyMetric create;
+		private LatencyMetric activate;
+		private LatencyMetric destroy;
+
+		public Latencies(LatencyMetric wait, LatencyMetric hold, LatencyMetric create, LatencyMetric activate, LatencyMetric destroy) {
+			super();
+			this.wait = wait;
+			this.hold = hold;
+			this.create = create;
+			this.activate = activate;
+			this.destroy = destroy;
+		}
+
+		/**
+		 * @return the time blocking and asynchronous borrows waited for their Object, 0 for those which didn't have to wait
+		 */
+		public LatencyMetric getWait() {
+			return this.wait;
+		}
+
+		/**
+		 * @return the time from borrowing an Object to releasing or invalidating it
+		 */
+		public LatencyMetric getHold() {
+			return this.hold;
+		}
+
+		/**
+		 * @return the time spent creating Objects in the factory
+		 */
+		public LatencyMetric getCreate() {
+			return this.create;
+		}
+
+		/**
+		 * @return the time spent activating Objects in the factory
+		 */
+		public LatencyMetric getActivate() {
+			return this.activate;
+		}
+
+		/**
+		 * @return the time spent destroying Objects in the factory
+		 */
+		public LatencyMetric getDestroy() {
+			return this.destroy;
+		}
+
+		@Override
+		public String toString() {
+			return "Latencies [wait=" + this.wait + ", hold=" + this.hold + ", create=" + this.create + ", activate=" + this.activate + ", destroy="
+					+ this.destroy + "]";
+		}
+
+	}
+
+	/**
+	 * The distribution of one kind of duration.  All values are in nanoseconds, percentiles are accurate to within 12.5%
+	 */
+	public static class LatencyMetric implements Serializable {
+
+		private static final long serialVersionUID = -4629175387365401196L;
+		private long count;
+		private long mean;
+		private long p50;
+		private long p90;
+		private long p99;
+		private long p999;
+		private long max;
+
+		public LatencyMetric(long count, long mean, long p50, long p90, long p99, long p999, long max) {
+			super();
+			this.count = count;
+			this.mean = mean;
+			this.p50 = p50;
+			this.p90 = p90;
+			this.p99 = p99;
+			this.p999 = p999;
+			this.max = max;
+		}
+
+		public long getCount() {
+			return this.count;
+		}
+
+		public long getMean() {
+			return this.mean;
+		}
+
+		public long getP50() {
+			return this.p50;
+		}
+
+		public long getP90() {
+			return this.p90;
+		}
+
+		public long getP99() {
+			return this.p99;
+		}
+
+		public long getP999() {
+			return this.p999;
+		}
+
+		public long getMax() {
+			return this.max;
+		}
+
+		@Override
+		public String toString() {
+			return "LatencyMetric [count=" + this.count + ", mean=" + this.mean + ", p50=" + this.p50 + ", p90=" + this.p90 + ", p99=" + this.p99
+					+ ", p999=" + this.p999 + ", max=" + this.max + "]";
+		}
+
+	}
+
 }
@@ -2,6 +2,7 @@ package org.pacesys.kbop;
 
 import org.pacesys.kbop.internal.KeyedMultiObjectPool;
 import org.pacesys.kbop.internal.KeyedSingleObjectPool;
+import org.pacesys.kbop.internal.PoolManagement;
 
 /**
  * Static utility methods pertaining to  {@link IKeyedObjectPool} instances
@@ -19,6 +20,16 @@ public class Pools {
 	return new KeyedSingleObjectPool<K, T>(factory);
   }
 
+  /**
+   * Creates a new Single Key to Object Pool using the specified configuration.  If a JMX name is configured the Pool's {@link PoolMXBean} is registered
+   * @param factory the factory which creates new Objects (T) when needed 
+   * @param config the pool configuration
+   * @return IKeyedObjectPool
+   */
+  public static <K, T> IKeyedObjectPool.Single<K, T> createPool(IPoolObjectFactory<K, T> factory, PoolConfig config) {
+	return register(new KeyedSingleObjectPool<K, T>(factory, config), config);
+  }
+
   /**
    * Creates a new Single or Multi Object Pool depending on the maxItemsPerKey size.  If the {@code maxItemsPerKey} is > 1
    * then a Multi Object to Key Pool is created.  
@@ -28,6 +39,31 @@ public class Pools {
    */
   public static <K, T> IKeyedObjectPool.Multi<K, T> createMultiPool(IPoolObjectFactory<K, T> factory, int maxItemsPerKey) {
 	  return new KeyedMultiObjectPool<K, T>(factory, maxItemsPerKey);
+  }
+
+  /**
+   * Creates a new Multi Object Pool using the specified configuration.  If a JMX name is configured the Pool's {@link PoolMXBean} is registered
+   * @param factory the factory which creates new Objects (T) when needed 
+   * @param maxItemsPerKey the size of pooled object for a single given key
+   * @param config the pool configuration
+   * @return IKeyedObjectPool
+   */
+  public static <K, T> IKeyedObjectPool.Multi<K, T> createMultiPool(IPoolObjectFactory<K, T> factory, int maxItemsPerKey, PoolConfig config) {
+	  return register(new KeyedMultiObjectPool<K, T>(factory, maxItemsPerKey, config), config);
+  }
 
+  /**
+   * Registers the Pool's MBean if the configuration names one, a Pool whose name is already taken is shutdown again
+   */
+  private static <P extends IKeyedObjectPool<?, ?>> P register(P pool, PoolConfig config) {
+	  if (config.getJmxName() != null) {
+		  try {
+			  PoolManagement.register(pool, config.getJmxName());
+		  } catch (RuntimeException e) {
+			  pool.shutdown();
+			  throw e;
+		  }
+	  }
+	  return pool;
   }
 }
@@ -1,26 +1,92 @@
 package org.pacesys.kbop.internal;
 
-import java.io.IOException;
-import java.util.Date;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.pacesys.kbop.BorrowToken;
+import org.pacesys.kbop.FairnessPolicy;
 import org.pacesys.kbop.IKeyedObjectPool;
 import org.pacesys.kbop.IPoolObjectFactory;
 import org.pacesys.kbop.IPooledObject;
+import org.pacesys.kbop.PoolConfig;
+import org.pacesys.kbop.PoolEvent;
 import org.pacesys.kbop.PoolKey;
+import org.pacesys.kbop.PoolListener;
+import org.pacesys.kbop.PoolMetrics.Counters;
+import org.pacesys.kbop.PoolMetrics.Latencies;
+import org.pacesys.kbop.internal.LockStripes.Stripe;
 
 /**
  * Thread-Safe - Abstract synchronous (blocking) pool of Objects which provides the base implementation for single key to single object and single key to multiple object
  * pool implementations.
- * 
+ *
+ * Keys are striped across a fixed set of locks (see {@link LockStripes}).  All state belonging to a key is guarded by the lock of the stripe the key hashes to so
+ * borrowers of unrelated keys only contend when their keys share a stripe.  Waiters are queued per key so a release only ever wakes a waiter of the key
+ * which was released.
+ *
+ * When no one is waiting on a key, borrowing an idle entry and releasing it are performed with a single compare and set on the entry's state
+ * (see {@link PoolableObject}) without acquiring the stripe lock.  The lock is only used to create entries, to queue waiters and to hand
+ * objects to waiters.
+ *
+ * If direct handoff is enabled (see {@link PoolConfig#directHandoff(boolean)}) a release on a key with waiters never returns the object to the pool, it
+ * is passed straight to the longest waiting waiter which then returns without another attempt to borrow.
+ *
+ * The order waiters are served in follows the configured {@link FairnessPolicy}.  Under {@link FairnessPolicy#FIFO} released objects are always handed
+ * off, a borrower arriving while others are queued on the key only gets an object it already owns and a woken waiter which lost a freed slot keeps its
+ * place at the head of the queue.  Under {@link FairnessPolicy#LIFO} the most recently queued waiter is served first and under {@link FairnessPolicy#EDF}
+ * the one with the earliest deadline, skipping waiters whose deadline has passed.  Regardless of the policy a blocking borrower with a higher priority
+ * (see {@link #borrow(Object, int, long, TimeUnit)}) is served before every waiter of a lower priority.
+ *
+ * Every borrow has an owner which is recorded in the entry's state and makes the borrow re-entrant for that owner: the calling Thread (unless disabled
+ * via {@link PoolConfig#threadOwnership(boolean)}), an explicit {@link BorrowToken} or {@link PoolableObject#BORROWED} for untracked borrows.  Blocking
+ * borrowers park via {@link java.util.concurrent.locks.LockSupport} on a {@link BlockingWaiter} which is reused for every borrow of the thread, never
+ * inside a monitor, so a waiting virtual thread unmounts from its carrier.  Keys are interned while the pool holds an entry for them and deadlines are
+ * kept as {@link System#nanoTime()}, so borrowing an existing object does not allocate.
+ *
+ * If an idle timeout is configured (see {@link PoolConfig#idleTimeout(long, TimeUnit)}) an {@link IdleEvictor} periodically sweeps all keys and destroys
+ * objects which have been idle for longer than the timeout.
+ *
+ * Objects can be created ahead of demand, either explicitly via {@link #prewarm(Collection, int)} or in the background to keep every key at the configured
+ * minimum of idle objects (see {@link PoolConfig#minIdlePerKey(int)}).  Both reserve a slot under the stripe lock and create the object outside of it, the
+ * object is then released into the pool like any borrowed object.
+ *
+ * A batch borrow (see {@link #borrowAll(Collection, long, TimeUnit)}) locks the stripes of all its keys in stripe order and takes every object or none.
+ * If a key is not available the batch backs out and waits on that key alone, it never holds objects while waiting.
+ *
+ * Clearing a key (see {@link #clear(Object)}) detaches its idle objects under the stripe lock and destroys them in bulk in the background, its borrowed
+ * objects are flagged to be destroyed when they are released.
+ *
+ * The factory's passivate and destroy callbacks are never invoked while holding a stripe lock.  If a lifecycle executor is configured (see
+ * {@link PoolConfig#lifecycleExecutor(Executor)}) they run on that executor instead of the releasing thread.  A released object only becomes borrowable
+ * once it has been passivated, an invalidated object frees its slot right away and its unit of the global budget once it has been destroyed.
+ *
+ * If a global limit is configured (see {@link PoolConfig#maxTotal(int)}) every object holds one unit of a pool wide budget.  A borrower which needs a new
+ * object while the budget is exhausted evicts the least recently used idle object of another key, or waits on its key if nothing can be evicted (see
+ * {@link #reserveCapacity(PoolKey, boolean, PoolableObject)}).
+ *
  * @param <K> The internal pool key type
  * @param <V> the object to Borrow
  * @param <E> the pool object holder containing the pooled object
@@ -28,11 +94,39 @@ import org.pacesys.kbop.PoolKey;
  */
 public abstract class AbstractKeyedObjectPool<K, V, E extends PoolableObject<V>> implements IKeyedObjectPool<K, V> {
 
-	protected final Lock lock;
+	private static final int VICTIM_NONE = 0;
+	private static final int VICTIM_EVICTED = 1;
+	private static final int VICTIM_RETRY = 2;
+	private static final int MAX_VICTIM_PROBES = 64;
+
+	protected final LockStripes stripes;
 	protected final ConcurrentMap<PoolKey<K>,E> pool;
-	protected final Set<E> borrowed;
-	protected final LinkedList<PoolWaitFuture<E>> waiting;
+	protected final LongAdder borrowedCount;
+	protected final ConcurrentMap<PoolKey<K>, WaitQueue<E>> waiting;
+	protected final AtomicInteger waitingCount;
 	protected IPoolObjectFactory<K, V> factory;
+	protected final FairnessPolicy fairness;
+	protected final boolean directHandoff;
+	protected final boolean threadOwnership;
+	protected final long idleTimeoutMillis;
+	protected final int minIdlePerKey;
+	protected final int maxTotal;
+	protected final Executor lifecycleExecutor;
+	protected final PoolCounters counters;
+	protected final LatencyRecorder latencies;
+	protected final EventDispatcher<K> events;
+	protected final boolean timed;
+	volatile PoolManagement management;
+	private final ConcurrentMap<PoolKey<K>, LatencyRecorder> keyLatencies;
+	private final IdleEvictor evictor;
+	private final Set<PoolKey<K>> refilling;
+	private final AtomicInteger totalCount;
+	private final ConcurrentLinkedQueue<E> idleLru;
+	private final AtomicInteger idleLruSize;
+	private final AtomicBoolean compacting;
+	private final ConcurrentLinkedQueue<PoolKey<K>> budgetWaiters;
+	private final ConcurrentMap<K, PoolKey<K>> keys;
+	private final ThreadLocal<BlockingWaiter<E>> waiters;
 	private volatile boolean isShutDown;
 
 
@@ -40,21 +134,295 @@ public abstract class AbstractKeyedObjectPool<K, V, E extends PoolableObject<V>>
 	 * Instantiates a new abstract keyed object pool.
 	 */
 	public AbstractKeyedObjectPool(IPoolObjectFactory<K, V> factory) {
-		this.lock = new ReentrantLock();
-		this.waiting = new LinkedList<PoolWaitFuture<E>>();
-		this.borrowed = new HashSet<E>();
+		this(factory, PoolConfig.get());
+	}
+
+	/**
+	 * Instantiates a new abstract keyed object pool.
+	 *
+	 * @param factory the factory
+	 * @param config the pool configuration
+	 */
+	public AbstractKeyedObjectPool(IPoolObjectFactory<K, V> factory, PoolConfig config) {
+		this.stripes = new LockStripes(config.getLockStripes());
+		this.borrowedCount = new LongAdder();
+		this.waiting = new ConcurrentHashMap<PoolKey<K>, WaitQueue<E>>();
+		this.waitingCount = new AtomicInteger();
 		this.pool = new ConcurrentHashMap<PoolKey<K>, E>();
 		this.factory = factory;
+		this.fairness = config.getFairness();
+		this.directHandoff = config.isDirectHandoff() || fairness == FairnessPolicy.FIFO;
+		this.threadOwnership = config.isThreadOwnership();
+		this.idleTimeoutMillis = config.getIdleTimeoutMillis();
+		this.minIdlePerKey = config.getMinIdlePerKey();
+		this.refilling = ConcurrentHashMap.newKeySet();
+		this.maxTotal = config.getMaxTotal();
+		this.lifecycleExecutor = config.getLifecycleExecutor();
+		this.totalCount = new AtomicInteger();
+		this.idleLru = new ConcurrentLinkedQueue<E>();
+		this.idleLruSize = new AtomicInteger();
+		this.compacting = new AtomicBoolean();
+		this.budgetWaiters = new ConcurrentLinkedQueue<PoolKey<K>>();
+		this.keys = new ConcurrentHashMap<K, PoolKey<K>>();
+		this.counters = new PoolCounters();
+		this.latencies = config.isRecordLatencies() ? new LatencyRecorder(Math.min(8, Runtime.getRuntime().availableProcessors())) : null;
+		this.keyLatencies = config.isRecordKeyLatencies() ? new ConcurrentHashMap<PoolKey<K>, LatencyRecorder>() : null;
+		this.events = eventDispatcher(config);
+		this.timed = latencies != null || events != null;
+		this.waiters = new ThreadLocal<BlockingWaiter<E>>() {
+			protected BlockingWaiter<E> initialValue() {
+				return new BlockingWaiter<E>();
+			}
+		};
+		if (idleTimeoutMillis > 0) {
+			this.evictor = new IdleEvictor(config.getEvictionIntervalMillis(), config.getEvictionBatchSize());
+			evictor.schedule(evictor.interval);
+		}
+		else
+			this.evictor = null;
+	}
+
+	/**
+	 * @return the dispatcher for the configured listener or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	private EventDispatcher<K> eventDispatcher(PoolConfig config) {
+		if (config.getListener() == null)
+			return null;
+		return new EventDispatcher<K>((PoolListener<K>) config.getListener(), (lifecycleExecutor != null) ? lifecycleExecutor : ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Returns the interned Pool Key for the specified user {@code key} so borrowing a key which is already part of the pool does not allocate.  A key
+	 * the pool holds no entry for gets a new Pool Key, keys are only interned while the pool holds an entry for them, see
+	 * {@link #installEntry(PoolKey, PoolableObject)} and {@link #removeEntry(PoolKey, PoolableObject)}.
+	 *
+	 * @param key the user key
+	 * @return the Pool Key
+	 */
+	protected PoolKey<K> keyFor(K key) {
+		PoolKey<K> poolKey = (key != null) ? keys.get(key) : null;
+		return (poolKey != null) ? poolKey : PoolKey.lookup(key);
+	}
+
+	/**
+	 * Finds the user key of the pool whose {@code toString()} form is {@code name}.  Used by management clients which only know keys by name, a key
+	 * which is a String itself is found directly, any other key by scanning the keys of the pool.
+	 *
+	 * @param name the key's {@code toString()} form
+	 * @return the user key or null if the pool holds no such key
+	 */
+	K findKey(String name) {
+		PoolKey<K> poolKey = keys.get(name);
+		if (poolKey != null)
+			return poolKey.get();
+		for (K key : keys.keySet()) {
+			if (String.valueOf(key).equals(name))
+				return key;
+		}
+		return null;
+	}
+
+	/**
+	 * Adds the {@code entry} of the specified {@code key} to the pool and interns the key.  The caller must hold the stripe lock for the key.
+	 *
+	 * @param key the Pool Key
+	 * @param entry the entry to add
+	 */
+	protected void installEntry(PoolKey<K> key, E entry) {
+		pool.put(key, entry);
+		if (key.get() != null)
+			keys.putIfAbsent(key.get(), key);
+	}
+
+	/**
+	 * Removes the {@code entry} of the specified {@code key} from the pool and forgets the interned key.  The caller must hold the stripe lock for the key.
+	 *
+	 * @param key the Pool Key
+	 * @param entry the entry to remove
+	 */
+	protected void removeEntry(PoolKey<K> key, E entry) {
+		if (pool.remove(key, entry)) {
+			keys.remove(key.get());
+			if (keyLatencies != null)
+				keyLatencies.remove(key);
+		}
+	}
+
+	/**
+	 * Records a latency of the specified {@code kind} for the pool and, if enabled, for the {@code key}.  Callers only measure while {@link #timed}
+	 * is set and only record while {@link #latencies} is set.  A destroy is only recorded for a key which still has latencies, usually its entry has already been removed along with them.
+	 *
+	 * @param kind the kind of latency such as {@link LatencyRecorder#WAIT}
+	 * @param key the Pool Key the latency belongs to
+	 * @param nanos the latency in nanoseconds
+	 */
+	protected void recordLatency(int kind, PoolKey<?> key, long nanos) {
+		latencies.record(kind, nanos);
+		if (keyLatencies == null)
+			return;
+		LatencyRecorder recorder = keyLatencies.get(key);
+		if (recorder == null) {
+			if (kind == LatencyRecorder.DESTROY)
+				return;
+			@SuppressWarnings("unchecked")
+			PoolKey<K> poolKey = (PoolKey<K>) key;
+			recorder = new LatencyRecorder(1);
+			LatencyRecorder existing = keyLatencies.putIfAbsent(poolKey, recorder);
+			if (existing != null)
+				recorder = existing;
+		}
+		recorder.record(kind, nanos);
+	}
+
+	/**
+	 * @return the current lifecycle event counts of the pool
+	 */
+	protected Counters counterSnapshot() {
+		return counters.snapshot();
+	}
+
+	/**
+	 * @return the pool's latencies or null if they are not recorded
+	 */
+	protected Latencies latencySnapshot() {
+		return (latencies != null) ? latencies.snapshot() : null;
+	}
+
+	/**
+	 * @return the latencies of every key with recorded latencies or null if they are not recorded per key
+	 */
+	protected Map<PoolKey<K>, Latencies> keyLatencySnapshot() {
+		if (keyLatencies == null)
+			return null;
+		Map<PoolKey<K>, Latencies> snapshot = new HashMap<PoolKey<K>, Latencies>();
+		for (Map.Entry<PoolKey<K>, LatencyRecorder> e : keyLatencies.entrySet())
+			snapshot.put(e.getKey(), e.getValue().snapshot());
+		return snapshot;
+	}
+
+	/**
+	 * Activates the {@code entry} which has just been borrowed via the factory and stamps the start of the borrow for the hold latency
+	 *
+	 * @param entry the borrowed entry
+	 */
+	protected void activate(E entry) {
+		counters.activations.increment();
+		if (!timed) {
+			factory.activate(entry.get());
+			return;
+		}
+		long start = System.nanoTime();
+		factory.activate(entry.get());
+		long now = System.nanoTime();
+		if (latencies != null)
+			recordLatency(LatencyRecorder.ACTIVATE, entry.getKey(), now - start);
+		entry.borrowedAt = now;
+	}
+
+	/**
+	 * Stamps the start of the borrow of a placeholder reserved for a borrower, its hold latency includes the creation of the object
+	 *
+	 * @param entry the placeholder
+	 */
+	protected void stampBorrowed(E entry) {
+		if (timed)
+			entry.borrowedAt = System.nanoTime();
+	}
+
+	/**
+	 * Creates the object of the placeholder {@code entry} via the factory
+	 *
+	 * @param key the Pool Key of the entry
+	 * @param entry the placeholder
+	 */
+	protected void populate(PoolKey<K> key, E entry) {
+		E victim = takeVictim(entry);
+		if (victim != null)
+			destroyQuietly(victim);
+		if (!timed) {
+			entry.created(factory.create(key));
+			counters.creates.increment();
+			return;
+		}
+		long start = System.nanoTime();
+		entry.created(factory.create(key));
+		counters.creates.increment();
+		long elapsed = System.nanoTime() - start;
+		if (latencies != null)
+			recordLatency(LatencyRecorder.CREATE, key, elapsed);
+		if (events != null)
+			events.emit(PoolEvent.Type.CREATED, key, elapsed);
+	}
+
+	/**
+	 * Passivates the released {@code entry} via the factory
+	 *
+	 * @param entry the released entry
+	 * @param counted false for an entry no borrower received, see {@link #restore(PoolableObject)}
+	 */
+	protected void passivate(E entry, boolean counted) {
+		if (counted)
+			counters.passivations.increment();
+		factory.passivate(entry.get());
+	}
+
+	/**
+	 * Destroys the object of the {@code entry} via the factory
+	 *
+	 * @param entry the entry
+	 */
+	private void destroyObject(E entry) {
+		counters.destroys.increment();
+		if (!timed) {
+			factory.destroy(entry.get());
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			factory.destroy(entry.get());
+		} finally {
+			long elapsed = System.nanoTime() - start;
+			if (latencies != null)
+				recordLatency(LatencyRecorder.DESTROY, entry.getKey(), elapsed);
+			if (events != null)
+				events.emit(PoolEvent.Type.DESTROYED, entry.<K>getKey(), elapsed);
+		}
+	}
+
+	/**
+	 * Converts a timeout into a {@link System#nanoTime()} deadline
+	 *
+	 * @param timeout the timeout, 0 or less for none
+	 * @param unit the time unit of the timeout
+	 * @return the deadline or 0 if there is no timeout
+	 */
+	static long deadline(long timeout, TimeUnit unit) {
+		if (timeout <= 0)
+			return 0;
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		return (deadline == 0) ? 1 : deadline;
+	}
+
+	/**
+	 * Finds the lock stripe which guards the specified {@code key}
+	 *
+	 * @param key the pool key
+	 * @return the stripe
+	 */
+	protected Stripe stripe(PoolKey<?> key) {
+		return stripes.forKey(key);
 	}
 
 	/**
-	 * Creates the PoolableObject entry based on the provided key
+	 * Creates the PoolableObject entry based on the provided key.  The entry is a placeholder which reserves the slot for the key, the actual
+	 * object is created by the factory outside of the lock once the placeholder has been inserted (see {@link #createOutsideLock(Stripe, PoolKey, PoolableObject)})
 	 *
 	 * @param key the PoolKey
 	 * @return the Poolable Object
 	 */
 	protected E create(PoolKey<K> key) {
-		throw new IllegalStateException("Method not implemented"); 
+		throw new IllegalStateException("Method not implemented");
 	}
 
 	/**
@@ -70,7 +438,7 @@ public abstract class AbstractKeyedObjectPool<K, V, E extends PoolableObject<V>>
 	 */
 	@Override
 	public IPooledObject<V> borrow(K key) throws Exception {
-		return createFuture(PoolKey.lookup(key)).get();
+		return borrowAs(currentOwner(), key, 0, 0, TimeUnit.MILLISECONDS);
 	}
 
 	/**
@@ -78,194 +446,1989 @@ public abstract class AbstractKeyedObjectPool<K, V, E extends PoolableObject<V>>
 	 */
 	@Override
 	public IPooledObject<V> borrow(K key, long timeout, TimeUnit unit) throws TimeoutException, Exception {
-		return createFuture(PoolKey.lookup(key)).get(timeout, unit);
+		return borrowAs(currentOwner(), key, 0, timeout, unit);
 	}
 
 	/**
-	 * Creates a Future which will wait for the Keyed Object to become available or timeout
-	 * @param key the Pool Key
-	 * @return PoolWaitFuture
+	 * {@inheritDoc}
 	 */
-	protected PoolWaitFuture<E> createFuture(final PoolKey<K> key) {
-		return new PoolWaitFuture<E>(lock) {
-			protected E getPoolObject(long timeout, TimeUnit unit) throws IOException, InterruptedException, TimeoutException {
-				return getBlockingUntilAvailableOrTimeout(key, timeout, unit, this);
-			}
-		};
+	@Override
+	public IPooledObject<V> borrow(K key, int priority, long timeout, TimeUnit unit) throws TimeoutException, Exception {
+		return borrowAs(currentOwner(), key, priority, timeout, unit);
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public void release(IPooledObject<V> borrowedObject) {
-		release(borrowedObject, Boolean.TRUE);
+	public IPooledObject<V> borrow(BorrowToken token, K key) throws Exception {
+		return borrowAs(validateToken(token), key, 0, 0, TimeUnit.MILLISECONDS);
 	}
 
-	protected void release(IPooledObject<V> borrowedObject, boolean reusable) {
-		lock.lock();
-		if (borrowed.remove(borrowedObject))
-		{
-			((PoolableObject<V>)borrowedObject).releaseOwner();
-			if (!reusable)
-			{
-				factory.destroy(borrowedObject.get());
-				pool.remove(borrowedObject.getKey());
-			}
-			else
-				factory.passivate(borrowedObject.get());
-
-			PoolWaitFuture<E> future = waiting.poll();
-			if (future != null) {
-				future.wakeup();
-			}		
-		}
-		lock.unlock();
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public IPooledObject<V> borrow(BorrowToken token, K key, long timeout, TimeUnit unit) throws TimeoutException, Exception {
+		return borrowAs(validateToken(token), key, 0, timeout, unit);
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public void invalidate(IPooledObject<V> borrowedObject) {
-		release(borrowedObject, Boolean.FALSE);
+	public IPooledObject<V> borrow(BorrowToken token, K key, int priority, long timeout, TimeUnit unit) throws TimeoutException, Exception {
+		return borrowAs(validateToken(token), key, priority, timeout, unit);
 	}
 
 	/**
-	 * Internal: Blocks until the object to be borrowed based on the key is available or until the max timeout specified has lapsed.
-	 *   
-	 * @param key the Pool Key used to lookup the Object to borrow 
-	 * @param timeout the maximum time to wait
+	 * Blocking borrow on behalf of the specified {@code owner}
+	 *
+	 * @param owner the owning Thread or token, or {@link PoolableObject#BORROWED} for an untracked borrow
+	 * @param key the key to borrow
+	 * @param priority the priority of the borrow should it have to wait, higher priorities are served first
+	 * @param timeout the maximum time to wait, 0 to wait indefinitely
 	 * @param unit the time unit of the timeout argument
-	 * @param future the current future waiting on the object to become available
-	 * @return the Object which was successfully borrowed.
-	 * @throws InterruptedException if the thread was interrupted
-	 * @throws IllegalStateException if the pool has been shutdown
-	 * @throws TimeoutException if the wait timed out
+	 * @return the borrowed entry
 	 */
-	E getBlockingUntilAvailableOrTimeout(final PoolKey<K> key, final long timeout, final TimeUnit unit, final PoolWaitFuture<E> future) throws InterruptedException, TimeoutException {
-
-		Date deadline = null;
-		if (timeout > 0) {
-			deadline = new Date(System.currentTimeMillis() + unit.toMillis(timeout));
+	private IPooledObject<V> borrowAs(Object owner, K key, int priority, long timeout, TimeUnit unit) throws TimeoutException, Exception {
+		PoolKey<K> poolKey = keyFor(key);
+		E entry = tryAcquireFast(poolKey, owner);
+		if (entry != null) {
+			counters.borrows.increment();
+			if (latencies != null)
+				recordLatency(LatencyRecorder.WAIT, poolKey, 0);
+			if (events != null)
+				events.emit(PoolEvent.Type.BORROWED, poolKey, 0);
+			return entry;
+		}
+		long started = timed ? System.nanoTime() : 0;
+		long deadline = deadline(timeout, unit);
+		BlockingWaiter<E> waiter = waiters.get();
+		// a borrow from a callback run while this thread is already waiting gets a waiter of its own
+		if (!waiter.begin(priority, deadline)) {
+			waiter = new BlockingWaiter<E>();
+			waiter.begin(priority, deadline);
 		}
-		lock.lock();
 		try
 		{
-			E entry = null;
-			for(;;) 
-			{
-				validateShutdown();
-				entry = createOrAttemptToBorrow(key);
+			entry = getBlockingUntilAvailableOrTimeout(poolKey, owner, deadline, waiter);
+		}
+		catch (InterruptedException e) {
+			counters.cancelledWaits.increment();
+			throw e;
+		}
+		catch (TimeoutException e) {
+			if (events != null)
+				events.emit(PoolEvent.Type.TIMED_OUT, poolKey, System.nanoTime() - started);
+			throw e;
+		}
+		finally {
+			waiter.end();
+			if (events != null && waiter.wasQueued())
+				events.emit(PoolEvent.Type.WAITED, poolKey, System.nanoTime() - started);
+		}
+		counters.borrows.increment();
+		if (timed) {
+			long elapsed = System.nanoTime() - started;
+			if (latencies != null)
+				recordLatency(LatencyRecorder.WAIT, poolKey, elapsed);
+			if (events != null)
+				events.emit(PoolEvent.Type.BORROWED, poolKey, elapsed);
+		}
+		return entry;
+	}
 
-				if (entry != null) 
-					return entry.flagOwner();
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public IPooledObject<V> tryBorrow(K key) {
+		return tryBorrowAs(currentOwner(), key);
+	}
 
-				if (!await(future, key, deadline) && deadline != null && deadline.getTime() <= System.currentTimeMillis())  break;
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public IPooledObject<V> tryBorrow(BorrowToken token, K key) {
+		return tryBorrowAs(validateToken(token), key);
+	}
 
-			}
-			throw new TimeoutException("Timeout waiting for Pool for Key: " + key);
+	/**
+	 * Non blocking borrow on behalf of the specified {@code owner}.  Tries the lock free fast path first and otherwise makes a single attempt under the
+	 * stripe lock, the same attempt a blocking borrow makes before it waits, without creating a future or queueing a waiter.
+	 *
+	 * @param owner the owning Thread or token, or {@link PoolableObject#BORROWED} for an untracked borrow
+	 * @param key the key to borrow
+	 * @return the borrowed entry or null
+	 */
+	private IPooledObject<V> tryBorrowAs(Object owner, K key) {
+		PoolKey<K> poolKey = keyFor(key);
+		E entry = tryAcquireFast(poolKey, owner);
+		if (entry != null) {
+			counters.borrows.increment();
+			if (latencies != null)
+				recordLatency(LatencyRecorder.WAIT, poolKey, 0);
+			if (events != null)
+				events.emit(PoolEvent.Type.BORROWED, poolKey, 0);
+			return entry;
+		}
+		Stripe stripe = stripe(poolKey);
+		stripe.lock();
+		try
+		{
+			validateShutdown();
+			entry = attemptToBorrow(poolKey, owner, true);
+			if (entry == null)
+				return null;
+			if (entry.isCreating())
+				createOutsideLock(stripe, poolKey, entry);
+			counters.borrows.increment();
+			if (latencies != null)
+				recordLatency(LatencyRecorder.WAIT, poolKey, 0);
+			if (events != null)
+				events.emit(PoolEvent.Type.BORROWED, poolKey, 0);
+			return entry.flagOwner(owner);
 		}
 		finally {
-			lock.unlock();
+			stripe.unlock();
 		}
 	}
 
 	/**
-	 * Default Single Key to Single Object implementation.  Advanced Pools extending this class can override this behavior.  If the key does not exist then
-	 * an entry should be created and returned. If the key exists and is not borrowed then the entry should be returned. 
-	 * 
-	 * If the key exists and is already borrowed then null should be returned.
-	 * 
-	 * It is up to the implementation of this method to update the borrowed queue
-	 * 
-	 * @param key the Pool lookup key
-	 * @return Entry if available
+	 * @return the owner of a borrow made without a token by the calling thread
 	 */
-	protected E createOrAttemptToBorrow(final PoolKey<K> key) {
-		E entry = null;
-		if (!pool.containsKey(key))
-		{
-			entry = create(key).initialize(key, this);
-			pool.put(key, entry);
-			borrowed.add(entry);
-			return entry;
-		}
+	protected Object currentOwner() {
+		return threadOwnership ? Thread.currentThread() : PoolableObject.BORROWED;
+	}
 
-		entry = pool.get(key);
+	private static Object validateToken(BorrowToken token) {
+		if (token == null)
+			throw new IllegalArgumentException("Borrow token must not be null");
+		return token;
+	}
 
-		if (borrowed.add(entry))
-		{
-			factory.activate(entry.get());
+	/**
+	 * Lock free borrow of an existing idle entry.  Only succeeds when no one is waiting on the key so the fast path never overtakes a queued
+	 * waiter.  Returns null when the slow (locked) path must be used.
+	 *
+	 * @param key the Pool Key
+	 * @param owner the owning thread or token, or {@link PoolableObject#BORROWED} for an untracked (non re-entrant) borrow
+	 * @return the borrowed entry or null
+	 */
+	protected E tryAcquireFast(PoolKey<K> key, Object owner) {
+		validateShutdown();
+		E entry = pool.get(key);
+		if (entry == null)
+			return null;
+		if (entry.isOwnedBy(owner))
 			return entry;
-		}
+		if (hasWaiters(key) || !entry.tryAcquire(owner))
+			return null;
+		borrowedCount.increment();
+		activate(entry);
+		return entry;
+	}
 
-		return entry.isCurrentOwner() ? entry : null;
+	/**
+	 * Determines if anyone is waiting on the specified {@code key}.  Safe to call without holding the stripe lock
+	 *
+	 * @param key the Pool Key
+	 * @return true if waiters are queued for the key
+	 */
+	protected boolean hasWaiters(PoolKey<K> key) {
+		WaitQueue<E> queue = waiting.get(key);
+		return queue != null && !queue.isEmpty();
 	}
 
 	/**
-	 * Adds the current PoolWaitFuture into the waiting list.  The future will wait up until the specified deadline.  If the future is woken up before the
-	 * specified deadline then true is returned otherwise false.  The future will always be removed from the wait list regardless
-	 * of the outcome.
+	 * Determines if a borrow of the specified {@code key} could currently succeed.  Used by waiters (while holding the stripe lock) after they have
+	 * queued themselves to detect an object which was released via the lock free path just before they queued.
 	 *
-	 * @param future the PoolWaitFuture who is waiting for an object
-	 * @param key the Pool Key associated with this wait
-	 * @param deadline the max timeout to wait for
-	 * @return true if
-	 * @throws InterruptedException the interrupted exception
+	 * @param key the Pool Key
+	 * @return true if the key has an idle entry, or no entry at all and the global budget allows to create one
+	 */
+	protected boolean isAvailable(PoolKey<K> key) {
+		E entry = pool.get(key);
+		return (entry == null) ? hasCapacity() : entry.isIdle();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompletableFuture<IPooledObject<V>> borrowAsync(K key) {
+		return borrowAsync(key, 0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * {@inheritDoc}
 	 */
-	protected boolean await(final PoolWaitFuture<E> future, final PoolKey<K> key, Date deadline) throws InterruptedException {
+	@Override
+	public CompletableFuture<IPooledObject<V>> borrowAsync(K key, long timeout, TimeUnit unit) {
+		PoolKey<K> poolKey = keyFor(key);
+		E entry;
+		try {
+			entry = tryAcquireFast(poolKey, PoolableObject.BORROWED);
+		} catch (IllegalStateException e) {
+			if (!isShutdown())
+				throw e;
+			// the shutdown is reported through the future like for a borrow which is already pending
+			CompletableFuture<IPooledObject<V>> future = new CompletableFuture<IPooledObject<V>>();
+			future.completeExceptionally(e);
+			return future;
+		}
+		if (entry != null) {
+			counters.borrows.increment();
+			if (latencies != null)
+				recordLatency(LatencyRecorder.WAIT, poolKey, 0);
+			if (events != null)
+				events.emit(PoolEvent.Type.BORROWED, poolKey, 0);
+			return CompletableFuture.completedFuture((IPooledObject<V>) entry);
+		}
+
+		AsyncBorrow waiter = new AsyncBorrow(poolKey);
+		waiter.deadline = deadline(timeout, unit);
+		Stripe stripe = stripe(poolKey);
+		stripe.lock();
 		try
 		{
-			waiting.add(future);
-			return future.await(deadline);
+			if (!waiter.attempt(true)) {
+				queue(poolKey, waiter);
+				waiter.queued = true;
+				waitingCount.incrementAndGet();
+				if (timeout > 0)
+					waiter.expireAfter(timeout, unit);
+				// an object may have been released via the lock free path before we queued
+				if (isAvailable(poolKey))
+					notifyWaiting(poolKey);
+			}
 		}
 		finally {
-			waiting.remove(future);
+			stripe.unlock();
 		}
+		return waiter.future;
 	}
 
 	/**
-	 * Validates the shutdown state. If true then a IllegalStateException is thrown
+	 * {@inheritDoc}
 	 */
-	protected void validateShutdown() {
-		if (isShutdown())
-			throw new IllegalStateException("Pool has been shutdown");
+	@Override
+	public Map<K, IPooledObject<V>> borrowAll(Collection<K> keys, long timeout, TimeUnit unit) throws TimeoutException, Exception {
+		Object owner = currentOwner();
+		List<PoolKey<K>> batch = canonicalOrder(keys);
+		long deadline = deadline(timeout, unit);
+		BatchWaiter waiter = new BatchWaiter();
+		waiter.deadline = deadline;
+		long started = (events != null) ? System.nanoTime() : 0;
+		for (;;) {
+			validateShutdown();
+			List<E> acquired = new ArrayList<E>(batch.size());
+			PoolKey<K> blocked = acquireBatch(batch, owner, waiter, acquired);
+			if (blocked == null)
+				return completeBatch(batch, acquired, owner, started);
+			awaitBatch(waiter, blocked, deadline, started);
+		}
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public void clear(K key) {
+	public void releaseAll(Collection<? extends IPooledObject<V>> borrowedObjects) {
+		RuntimeException failure = null;
+		for (IPooledObject<V> borrowedObject : borrowedObjects) {
+			try {
+				release(borrowedObject);
+			} catch (RuntimeException e) {
+				if (failure == null)
+					failure = e;
+			}
+		}
+		if (failure != null)
+			throw failure;
+	}
 
+	/**
+	 * Removes duplicate keys and sorts the keys by the index of their stripe, the order the stripes of a batch are locked in
+	 */
+	private List<PoolKey<K>> canonicalOrder(Collection<K> keys) {
+		Set<PoolKey<K>> distinct = new LinkedHashSet<PoolKey<K>>();
+		for (K key : keys)
+			distinct.add(keyFor(key));
+		List<PoolKey<K>> batch = new ArrayList<PoolKey<K>>(distinct);
+		Collections.sort(batch, new Comparator<PoolKey<K>>() {
+			public int compare(PoolKey<K> a, PoolKey<K> b) {
+				return Integer.compare(stripe(a).index, stripe(b).index);
+			}
+		});
+		return batch;
 	}
 
 	/**
-	 * {@inheritDoc}
+	 * Attempts to borrow every key of the {@code batch} while holding all of the batch's stripe locks.  If a key can't be borrowed the objects acquired so far
+	 * are backed out once the locks have been released and the {@code waiter} is queued on that key.
+	 *
+	 * @return null if all keys were acquired into {@code acquired}, otherwise the key the waiter has been queued on
 	 */
-	@Override
-	public void shutdown() {
-		if (isShutDown)
-			return;
+	private PoolKey<K> acquireBatch(List<PoolKey<K>> batch, Object owner, BatchWaiter waiter, List<E> acquired) {
+		PoolKey<K> blocked = null;
+		lockBatch(batch);
+		try
+		{
+			// look before taking anything so a busy key doesn't cost an activate and passivate of every other object
+			for (PoolKey<K> key : batch) {
+				if (!canBorrow(key, owner)) {
+					blocked = key;
+					break;
+				}
+			}
+			if (blocked == null) {
+				for (PoolKey<K> key : batch) {
+					E entry = createOrAttemptToBorrow(key, owner);
+					if (entry == null) {
+						blocked = key;
+						break;
+					}
+					acquired.add(entry);
+				}
+			}
+			if (blocked != null) {
+				queue(blocked, waiter);
+				waitingCount.incrementAndGet();
+			}
+		}
+		finally {
+			unlockBatch(batch);
+		}
+		if (blocked != null)
+			backOut(acquired, owner);
+		return blocked;
+	}
 
-		isShutDown = Boolean.TRUE;
-		lock.lock();
+	/**
+	 * Creates the objects of the placeholders acquired by a batch.  If the factory fails the whole batch is backed out
+	 */
+	private Map<K, IPooledObject<V>> completeBatch(List<PoolKey<K>> batch, List<E> acquired, Object owner, long started) {
+		for (E entry : acquired) {
+			if (entry.isCreating()) {
+				try {
+					populate(entry.<K>getKey(), entry);
+				} catch (RuntimeException e) {
+					backOut(acquired, owner);
+					throw e;
+				}
+			}
+		}
+		Map<K, IPooledObject<V>> borrowed = new LinkedHashMap<K, IPooledObject<V>>();
+		for (int i = 0; i < acquired.size(); i++)
+			borrowed.put(batch.get(i).get(), acquired.get(i).<K, E>flagOwner(owner));
+		counters.borrows.add(acquired.size());
+		if (events != null) {
+			long elapsed = System.nanoTime() - started;
+			for (PoolKey<K> key : batch)
+				events.emit(PoolEvent.Type.BORROWED, key, elapsed);
+		}
+		return borrowed;
+	}
+
+	/**
+	 * Returns the objects acquired by a failed batch attempt.  Objects the owner already held before the batch are kept, placeholders are discarded.
+	 * The caller must not hold a stripe lock.
+	 */
+	private void backOut(List<E> acquired, Object owner) {
+		for (E entry : acquired) {
+			if (entry.isOwnedBy(owner))
+				continue;
+			if (!entry.isCreating()) {
+				restore(entry);
+				continue;
+			}
+			PoolKey<K> key = entry.getKey();
+			Stripe stripe = stripe(key);
+			stripe.lock();
+			try
+			{
+				createFailed(key, entry);
+			}
+			finally {
+				stripe.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Waits for the {@code key} a batch is queued on.  On timeout or interruption the waiter is removed from the queue, a wakeup which raced with the
+	 * timeout is passed on to the next waiter of the key.
+	 */
+	private void awaitBatch(BatchWaiter waiter, PoolKey<K> key, long deadline, long started) throws InterruptedException, TimeoutException {
+		boolean woken = false;
 		try
 		{
-			onShutDown();
-			waiting.clear();
-			pool.clear();
-			borrowed.clear();
+			woken = waiter.await(deadline);
+		}
+		catch (InterruptedException e) {
+			counters.cancelledWaits.increment();
+			throw e;
 		}
 		finally {
-			lock.unlock();
+			if (!woken) {
+				Stripe stripe = stripe(key);
+				stripe.lock();
+				try
+				{
+					if (unqueue(key, waiter))
+						waitingCount.decrementAndGet();
+					else if (waiter.consume())
+						notifyWaiting(key);
+				}
+				finally {
+					stripe.unlock();
+				}
+			}
+		}
+		if (!woken) {
+			counters.timeouts.increment();
+			if (events != null)
+				events.emit(PoolEvent.Type.TIMED_OUT, key, System.nanoTime() - started);
+			throw new TimeoutException("Timeout waiting for Pool for Key: " + key);
 		}
 	}
 
 	/**
-	 * Used as a hook for extending Pools to trigger cleanup
+	 * Locks the distinct stripes of the canonically ordered {@code batch} in stripe order
 	 */
-	protected abstract void onShutDown();
+	private void lockBatch(List<PoolKey<K>> batch) {
+		Stripe last = null;
+		for (PoolKey<K> key : batch) {
+			Stripe stripe = stripe(key);
+			if (stripe != last)
+				stripe.lock();
+			last = stripe;
+		}
+	}
+
+	/**
+	 * Unlocks the stripes locked by {@link #lockBatch(List)} in reverse order
+	 */
+	private void unlockBatch(List<PoolKey<K>> batch) {
+		Stripe last = null;
+		for (int i = batch.size() - 1; i >= 0; i--) {
+			Stripe stripe = stripe(batch.get(i));
+			if (stripe != last)
+				stripe.unlock();
+			last = stripe;
+		}
+	}
+
+	/**
+	 * Determines if the {@code owner} could borrow the specified {@code key} right now without waiting, used by batch borrows before they take anything.
+	 * The caller holds the stripe lock for the key.
+	 *
+	 * @param key the Pool Key
+	 * @param owner the owner of the borrow
+	 * @return true if the key has an idle entry, no entry at all or an entry owned by {@code owner}
+	 */
+	protected boolean canBorrow(PoolKey<K> key, Object owner) {
+		E entry = pool.get(key);
+		return entry == null || entry.isIdle() || entry.isOwnedBy(owner);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void release(IPooledObject<V> borrowedObject) {
+		release(borrowedObject, Boolean.TRUE);
+	}
+
+	/**
+	 * Releases or invalidates the borrowed object.  A reusable object is passivated, on the lifecycle executor if one is configured, and then returned
+	 * to the pool via {@link #returnToPool(PoolableObject)}.  An invalidated object is removed from the pool under the stripe lock and destroyed once the
+	 * lock has been released.
+	 *
+	 * @param borrowedObject the borrowed object
+	 * @param reusable true to return the object to the pool, false to destroy it
+	 */
+	@SuppressWarnings("unchecked")
+	protected void release(IPooledObject<V> borrowedObject, boolean reusable) {
+		final E entry = (E) borrowedObject;
+		if (!reusable || entry.isDestroyOnRelease()) {
+			// recorded up front, the key's latencies are dropped along with its last object
+			long held = entry.isBorrowed() ? recordHold(entry) : 0;
+			PoolKey<K> key = entry.getKey();
+			if (discardLocked(key, entry)) {
+				// an object released after its key was cleared counts as released, it was not invalidated by the borrower
+				(reusable ? counters.releases : counters.invalidations).increment();
+				if (events != null)
+					events.emit(reusable ? PoolEvent.Type.RELEASED : PoolEvent.Type.INVALIDATED, key, held);
+				destroy(entry);
+			}
+			return;
+		}
+
+		// a duplicate or concurrent release of the same borrow loses the claim and must not passivate the object again
+		if (!entry.tryClaimRelease())
+			return;
+		long held = recordHold(entry);
+		counters.releases.increment();
+		if (events != null)
+			events.emit(PoolEvent.Type.RELEASED, entry.<K>getKey(), held);
+		passivateAndReturn(entry, Boolean.TRUE);
+	}
+
+	/**
+	 * Returns an entry no borrower has received to the pool, such as a newly created idle object or an object backed out of a batch.  The entry is
+	 * passivated like a released one but neither counted nor reported as a release.
+	 *
+	 * @param entry the entry, borrowed without a tracked owner
+	 */
+	protected void restore(E entry) {
+		if (!entry.tryClaimRelease())
+			return;
+		entry.borrowedAt = 0;
+		passivateAndReturn(entry, Boolean.FALSE);
+	}
+
+	/**
+	 * Passivates the {@code entry}, on the lifecycle executor if one is configured, and returns it to the pool via {@link #returnToPool(PoolableObject)}
+	 *
+	 * @param entry the entry whose release has been claimed
+	 * @param released true if a borrower released the entry, false if it is restored and the passivation is not counted
+	 */
+	private void passivateAndReturn(final E entry, final boolean released) {
+		if (lifecycleExecutor == null) {
+			passivate(entry, released);
+			returnToPool(entry);
+			return;
+		}
+		lifecycleExecutor.execute(new Runnable() {
+			public void run() {
+				try {
+					passivate(entry, released);
+				} catch (RuntimeException e) {
+					// no one is left to report the failure to, an object which can't be passivated must not be reused.  Its release has already been
+					// counted and reported, so it is discarded without counting an invalidation as well
+					if (discardLocked(entry.<K>getKey(), entry))
+						destroy(entry);
+					return;
+				}
+				returnToPool(entry);
+			}
+		});
+	}
+
+	/**
+	 * Invalidates the borrowed {@code entry} via {@link #discard(PoolKey, PoolableObject)} under the stripe lock.  The caller must not hold the lock and
+	 * destroys the entry if it has been discarded
+	 *
+	 * @param key the Pool Key of the entry
+	 * @param entry the borrowed entry
+	 * @return true if the entry has been invalidated
+	 */
+	private boolean discardLocked(PoolKey<K> key, E entry) {
+		Stripe stripe = stripe(key);
+		stripe.lock();
+		try
+		{
+			return discard(key, entry);
+		}
+		finally {
+			stripe.unlock();
+		}
+	}
+
+	/**
+	 * Records the hold latency of the {@code entry} being released
+	 *
+	 * @param entry the released entry
+	 * @return the time the entry was held in nanoseconds, 0 if the pool does not take timings
+	 */
+	private long recordHold(E entry) {
+		long borrowedAt = entry.borrowedAt;
+		if (!timed || borrowedAt == 0)
+			return 0;
+		long held = System.nanoTime() - borrowedAt;
+		if (latencies != null)
+			recordLatency(LatencyRecorder.HOLD, entry.getKey(), held);
+		entry.borrowedAt = 0;
+		return held;
+	}
+
+	/**
+	 * Returns the passivated {@code entry} to the pool or hands it to the next waiter.  With no waiters on the key the entry is released lock free,
+	 * after the state has been flipped to idle the waiters are checked once more so a waiter which queued concurrently is still woken.
+	 *
+	 * @param entry the borrowed entry which has been passivated
+	 */
+	protected void returnToPool(E entry) {
+		PoolKey<K> key = entry.getKey();
+		if (!hasWaiters(key)) {
+			markIdle(entry);
+			if (!entry.tryRelease())
+				return;
+			borrowedCount.decrement();
+			if (entry.isDestroyOnRelease()) {
+				// the key was cleared while we were releasing, either clear or we detach the entry
+				discardCleared(key, entry);
+				return;
+			}
+			idled(entry);
+			if (!hasWaiters(key))
+				return;
+		}
+
+		boolean discarded = false;
+		Stripe stripe = stripe(key);
+		stripe.lock();
+		try
+		{
+			// the key may have been cleared while the entry was being passivated
+			if (entry.isDestroyOnRelease() && entry.isBorrowed())
+				discarded = discard(key, entry);
+			else {
+				if (entry.isBorrowed())
+				{
+					if (directHandoff && transferToWaiter(key, entry))
+						return;
+					markIdle(entry);
+					if (!entry.tryRelease())
+						return;
+					borrowedCount.decrement();
+					idled(entry);
+				}
+				notifyWaiting(key);
+			}
+		}
+		finally {
+			stripe.unlock();
+		}
+		if (discarded)
+			destroy(entry);
+	}
+
+	/**
+	 * Invalidates the borrowed {@code entry}, removes it from the pool and wakes the next waiter of the key so it can create a replacement.  The caller
+	 * holds the stripe lock for the key and destroys the entry via {@link #destroy(PoolableObject)} once the lock has been released.
+	 *
+	 * @param key the Pool Key of the entry
+	 * @param entry the borrowed entry
+	 * @return true if the entry was borrowed and has been invalidated
+	 */
+	protected boolean discard(PoolKey<K> key, E entry) {
+		if (!entry.tryInvalidate())
+			return false;
+		removeEntry(key, entry);
+		borrowedCount.decrement();
+		scheduleRefill(key);
+		notifyWaiting(key);
+		return true;
+	}
+
+	/**
+	 * Destroys an invalidated {@code entry} which is no longer part of the pool and returns its unit of the global budget.  Runs on the lifecycle executor
+	 * if one is configured, otherwise on the calling thread which must not hold a stripe lock.
+	 *
+	 * @param entry the invalidated entry
+	 */
+	protected void destroy(final E entry) {
+		if (lifecycleExecutor != null) {
+			lifecycleExecutor.execute(new Runnable() {
+				public void run() {
+					destroyQuietly(entry);
+					releaseCapacity();
+				}
+			});
+			return;
+		}
+		try {
+			destroyObject(entry);
+		} finally {
+			releaseCapacity();
+		}
+	}
+
+	/**
+	 * Stamps the time after which the {@code entry} may be evicted.  Must be invoked right before the entry is released back into the pool
+	 *
+	 * @param entry the entry being released
+	 */
+	protected void markIdle(E entry) {
+		if (idleTimeoutMillis > 0)
+			entry.expireAt(System.currentTimeMillis() + idleTimeoutMillis);
+		if (maxTotal > 0)
+			entry.touch(System.nanoTime());
+	}
+
+	/**
+	 * Invoked once the {@code entry} has been released into the pool.  Makes the entry a candidate for eviction in favour of other keys and wakes a
+	 * borrower waiting for the global budget so it can evict it.
+	 *
+	 * @param entry the entry which is now idle
+	 */
+	protected void idled(E entry) {
+		if (maxTotal == 0)
+			return;
+		if (entry.enterLru(System.nanoTime())) {
+			idleLru.add(entry);
+			// invalidated entries are only dropped when they reach the head, compact once they could outnumber the live ones
+			if (idleLruSize.incrementAndGet() > 2 * maxTotal)
+				compactLru();
+		}
+		wakeBudgetWaiter();
+	}
+
+	/**
+	 * @return true if the global budget allows another object to be created
+	 */
+	protected boolean hasCapacity() {
+		return maxTotal == 0 || totalCount.get() < maxTotal;
+	}
+
+	/**
+	 * Takes one unit of the global budget for a new object of the {@code key}.  If the budget is exhausted and the caller is {@code borrowing}, the least
+	 * recently used idle object of the pool is evicted.  Without a lifecycle executor its unit is handed to the {@code placeholder} along with the victim,
+	 * which is destroyed right before the placeholder's object is created.  Otherwise, or if nothing could be evicted, the key is registered as waiting for
+	 * the budget and woken once a unit becomes available, which happens when an object is destroyed or released elsewhere.  The victim keeps its unit
+	 * until it has been destroyed so the limit bounds the number of live objects.  The caller holds the stripe lock for the key.
+	 *
+	 * @param key the Pool Key which needs a new object
+	 * @param borrowing true if a borrower needs the object, false to only use spare budget (prewarming)
+	 * @param placeholder the placeholder the new object will be created for
+	 * @return true if the caller may create the object
+	 */
+	protected boolean reserveCapacity(PoolKey<K> key, boolean borrowing, E placeholder) {
+		if (maxTotal == 0)
+			return true;
+		for (;;) {
+			int total = totalCount.get();
+			if (total >= maxTotal)
+				break;
+			if (totalCount.compareAndSet(total, total + 1))
+				return true;
+		}
+		if (!borrowing)
+			return false;
+
+		int outcome = evictLeastRecentlyUsed(placeholder);
+		if (outcome == VICTIM_EVICTED && lifecycleExecutor == null)
+			return true;
+		budgetWaiters.add(key);
+		if (outcome == VICTIM_EVICTED) {
+			// the victim's unit is returned once the executor has destroyed it, which wakes us
+			destroy(takeVictim(placeholder));
+			return false;
+		}
+		// a unit may have been returned before we registered, or a victim could not be examined this time
+		if (outcome == VICTIM_RETRY || hasCapacity())
+			wakeBudgetWaiter();
+		return false;
+	}
+
+	/**
+	 * Returns the unit of the global budget held by a placeholder which is discarded without its object having been created.  If the unit was taken over
+	 * from an evicted victim, the victim is destroyed once the stripe lock has been released and its unit returned afterwards.  The caller holds the stripe
+	 * lock for the key.
+	 *
+	 * @param key the Pool Key of the placeholder
+	 * @param placeholder the discarded placeholder
+	 */
+	protected void releaseCapacity(PoolKey<K> key, E placeholder) {
+		final E victim = takeVictim(placeholder);
+		if (victim == null) {
+			releaseCapacity();
+			return;
+		}
+		stripe(key).defer(new Runnable() {
+			public void run() {
+				destroyQuietly(victim);
+				releaseCapacity();
+			}
+		});
+	}
+
+	/**
+	 * Detaches the victim evicted to make room for the {@code placeholder}
+	 *
+	 * @param placeholder the placeholder
+	 * @return the victim which is still to be destroyed or null
+	 */
+	@SuppressWarnings("unchecked")
+	private E takeVictim(E placeholder) {
+		E victim = (E) placeholder.victim;
+		placeholder.victim = null;
+		return victim;
+	}
+
+	/**
+	 * Returns the unit of the global budget held by an object which has been destroyed
+	 */
+	protected void releaseCapacity() {
+		if (maxTotal == 0)
+			return;
+		totalCount.decrementAndGet();
+		wakeBudgetWaiter();
+	}
+
+	/**
+	 * Evicts the least recently used idle object so its unit of the global budget can be reused.  Entries are examined from the head of the queue, borrowed
+	 * entries and entries of locked or waited on keys are moved to the tail and an entry released since it was queued gets a second chance.  At most
+	 * {@link #MAX_VICTIM_PROBES} entries are examined.  The victim's stripe is only ever try-locked so two borrowers evicting from each other's keys
+	 * can't deadlock.  The victim is attached to the {@code placeholder} rather than destroyed since the caller holds a stripe lock.
+	 *
+	 * @param placeholder the placeholder the victim makes room for
+	 * @return {@link #VICTIM_EVICTED}, {@link #VICTIM_NONE} if no entry is idle or {@link #VICTIM_RETRY} if a victim may still be found later
+	 */
+	private int evictLeastRecentlyUsed(E placeholder) {
+		int size = idleLruSize.get();
+		boolean retry = size > MAX_VICTIM_PROBES;
+		for (int probes = Math.min(size, MAX_VICTIM_PROBES); probes > 0; probes--) {
+			E victim = idleLru.poll();
+			if (victim == null)
+				break;
+			if (victim.isInvalid()) {
+				idleLruSize.decrementAndGet();
+				victim.leaveLru();
+				continue;
+			}
+			if (victim.isIdle() && victim.usedSinceQueued()) {
+				victim.requeued(System.nanoTime());
+				idleLru.add(victim);
+				retry = true;
+				continue;
+			}
+			PoolKey<K> key = victim.getKey();
+			Stripe stripe = stripe(key);
+			if (!victim.isIdle() || !stripe.tryLock()) {
+				retry |= victim.isIdle();
+				idleLru.add(victim);
+				continue;
+			}
+			boolean evicted;
+			try
+			{
+				evicted = evictVictim(key, victim);
+			}
+			finally {
+				stripe.unlock();
+			}
+			if (!evicted) {
+				idleLru.add(victim);
+				continue;
+			}
+			idleLruSize.decrementAndGet();
+			victim.leaveLru();
+			placeholder.victim = victim;
+			return VICTIM_EVICTED;
+		}
+		return retry ? VICTIM_RETRY : VICTIM_NONE;
+	}
+
+	/**
+	 * Evicts the idle {@code victim} of the {@code key} in favour of another key.  Keys with waiters are left alone.  The caller holds the stripe lock for
+	 * the key, the victim is destroyed by the caller.
+	 *
+	 * @param key the Pool Key of the victim
+	 * @param victim the idle entry to evict
+	 * @return true if the victim has been invalidated and removed from the pool
+	 */
+	protected boolean evictVictim(PoolKey<K> key, E victim) {
+		if (hasWaiters(key) || !victim.tryEvict())
+			return false;
+		removeEntry(key, victim);
+		return true;
+	}
+
+	/**
+	 * Drops the invalidated entries from the least recently used queue.  The live entries keep their order
+	 */
+	private void compactLru() {
+		if (!compacting.compareAndSet(false, true))
+			return;
+		try
+		{
+			for (int n = idleLruSize.get(); n > 0; n--) {
+				E entry = idleLru.poll();
+				if (entry == null)
+					break;
+				if (entry.isInvalid()) {
+					idleLruSize.decrementAndGet();
+					entry.leaveLru();
+				}
+				else
+					idleLru.add(entry);
+			}
+		}
+		finally {
+			compacting.set(false);
+		}
+	}
+
+	/**
+	 * Wakes a borrower waiting for the global budget if there is one.  The borrower is woken from the common ForkJoinPool since the caller may hold a
+	 * stripe lock of another key
+	 */
+	private void wakeBudgetWaiter() {
+		if (!budgetWaiters.isEmpty())
+			ForkJoinPool.commonPool().execute(budgetWakeup);
+	}
+
+	private final Runnable budgetWakeup = new Runnable() {
+		public void run() {
+			PoolKey<K> key;
+			while ((key = budgetWaiters.poll()) != null) {
+				Stripe stripe = stripe(key);
+				stripe.lock();
+				try
+				{
+					if (hasWaiters(key)) {
+						notifyWaiting(key);
+						return;
+					}
+				}
+				finally {
+					stripe.unlock();
+				}
+			}
+		}
+	};
+
+	/**
+	 * Destroys an evicted object, a failing destroy is ignored since the object has been removed from the pool either way
+	 *
+	 * @param entry the evicted entry
+	 */
+	protected void destroyQuietly(E entry) {
+		try {
+			destroyObject(entry);
+		} catch (RuntimeException e) {
+			// ignored
+		}
+	}
+
+	/**
+	 * Evicts the idle objects of the specified {@code key} which expired before {@code now}.  Evicted entries are invalidated and removed from the pool
+	 * and added to {@code evicted}, the caller destroys them once the lock has been released.  Keys with waiters are skipped and a key is never evicted
+	 * below the minimum of idle objects.  The caller holds the stripe lock for the key.
+	 *
+	 * @param key the Pool Key to examine
+	 * @param now the current time in milliseconds
+	 * @param evicted receives the evicted entries
+	 */
+	protected void evictIdle(PoolKey<K> key, long now, List<E> evicted) {
+		E entry = pool.get(key);
+		if (minIdlePerKey > 0 || entry == null || !entry.isIdle() || !entry.isExpired(now) || hasWaiters(key))
+			return;
+		// the lock free borrow path can still race us for the entry, whoever wins the compare and set owns it
+		if (entry.tryEvict()) {
+			removeEntry(key, entry);
+			evicted.add(entry);
+		}
+	}
+
+	/**
+	 * Hands the released {@code entry} directly to the longest waiting waiter of the {@code key}.  The entry stays borrowed throughout so no other
+	 * borrower can take it in between.  Waiters which are no longer interested are skipped.  The caller must hold the stripe lock for the key and
+	 * must already have passivated the entry.
+	 *
+	 * @param key the Pool Key of the released entry
+	 * @param entry the released entry
+	 * @return true if a waiter accepted the entry, false if it should be returned to the pool
+	 */
+	protected boolean transferToWaiter(PoolKey<K> key, E entry) {
+		if (!entry.tryTransfer())
+			return false;
+		PoolWaiter<E> waiter;
+		while ((waiter = nextToServe(key)) != null) {
+			waitingCount.decrementAndGet();
+			if (waiter.offer(entry)) {
+				activate(entry);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Invoked under the stripe lock when a blocking borrower of the specified {@code owner} accepts the {@code entry} handed over by a releasing thread,
+	 * before the entry is flagged for the owner
+	 *
+	 * @param key the Pool Key of the entry
+	 * @param entry the entry which has been handed over
+	 * @param owner the owner of the borrow
+	 */
+	protected void handedOff(PoolKey<K> key, E entry, Object owner) {
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void invalidate(IPooledObject<V> borrowedObject) {
+		release(borrowedObject, Boolean.FALSE);
+	}
+
+	/**
+	 * Internal: Blocks until the object to be borrowed based on the key is available or until the max timeout specified has lapsed.
+	 *
+	 * @param key the Pool Key used to lookup the Object to borrow
+	 * @param owner the owner of the borrow
+	 * @param deadline the {@link System#nanoTime()} deadline or 0 to wait indefinitely
+	 * @param waiter the waiter of the calling thread, claimed via {@link BlockingWaiter#begin(int, long)}
+	 * @return the Object which was successfully borrowed.
+	 * @throws InterruptedException if the thread was interrupted
+	 * @throws IllegalStateException if the pool has been shutdown
+	 * @throws TimeoutException if the wait timed out
+	 */
+	E getBlockingUntilAvailableOrTimeout(final PoolKey<K> key, final Object owner, final long deadline, final BlockingWaiter<E> waiter) throws InterruptedException, TimeoutException {
+
+		Stripe stripe = stripe(key);
+		stripe.lock();
+		try
+		{
+			E entry = null;
+			boolean arriving = true;
+			for(;;)
+			{
+				validateShutdown();
+				entry = attemptToBorrow(key, owner, arriving);
+
+				if (entry != null) {
+					if (entry.isCreating())
+						createOutsideLock(stripe, key, entry);
+					return entry.flagOwner(owner);
+				}
+
+				// a waiter which was handed an entry has been woken, so an interrupt can't lose one
+				boolean woken = await(waiter, stripe, key, deadline, !arriving);
+				arriving = false;
+
+				entry = waiter.takeHandoff();
+				if (entry != null) {
+					handedOff(key, entry, owner);
+					return entry.flagOwner(owner);
+				}
+
+				if (!woken && deadline != 0 && deadline - System.nanoTime() <= 0)  break;
+
+			}
+			counters.timeouts.increment();
+			throw new TimeoutException("Timeout waiting for Pool for Key: " + key);
+		}
+		finally {
+			stripe.unlock();
+		}
+	}
+
+	/**
+	 * Populates the reserved placeholder {@code entry} by invoking the factory.  The stripe lock is released for the duration of the create call so a slow factory
+	 * only delays borrowers waiting on the same slot.  Other borrowers of the key see the placeholder as borrowed and wait for it rather than creating a duplicate.
+	 * If the factory fails the placeholder is discarded via {@link #createFailed(PoolKey, PoolableObject)} and the failure is propagated to the caller.
+	 *
+	 * The caller must hold the stripe lock, it is held again when this method returns.
+	 *
+	 * @param stripe the stripe guarding the key
+	 * @param key the Pool lookup key
+	 * @param entry the placeholder entry reserved for the current thread
+	 */
+	protected void createOutsideLock(Stripe stripe, PoolKey<K> key, E entry) {
+		boolean created = false;
+		stripe.unlock();
+		try
+		{
+			populate(key, entry);
+			created = true;
+		}
+		finally {
+			stripe.lock();
+			if (!created)
+				createFailed(key, entry);
+		}
+	}
+
+	/**
+	 * Invoked (under the stripe lock) when the factory failed to create the object for the placeholder {@code entry}.  The placeholder is removed and the next waiter
+	 * is woken so it can attempt the creation itself.
+	 *
+	 * @param key the Pool lookup key
+	 * @param entry the placeholder entry
+	 */
+	protected void createFailed(PoolKey<K> key, E entry) {
+		entry.invalidateState();
+		borrowedCount.decrement();
+		removeEntry(key, entry);
+		releaseCapacity(key, entry);
+		notifyWaiting(key);
+	}
+
+	/**
+	 * Default Single Key to Single Object implementation.  Advanced Pools extending this class can override this behavior.  If the key does not exist then
+	 * a placeholder entry should be created and returned flagged as creating (see {@link PoolableObject#isCreating()}). If the key exists and is not borrowed
+	 * then the entry should be returned.
+	 *
+	 * If the key exists and is already borrowed then null should be returned unless the entry is already owned by {@code owner}.
+	 *
+	 * It is up to the implementation of this method to update the borrowed queue.  The caller holds the lock of the stripe associated with the {@code key}
+	 *
+	 * @param key the Pool lookup key
+	 * @param owner the owner of the borrow, an entry already owned by it is returned again.  {@link PoolableObject#BORROWED} is never re-entrant
+	 * @return Entry if available
+	 */
+	protected E createOrAttemptToBorrow(final PoolKey<K> key, Object owner) {
+		E entry = pool.get(key);
+		if (entry == null)
+			return reserve(key, Boolean.TRUE);
+
+		if (entry.tryAcquire(PoolableObject.BORROWED))
+		{
+			borrowedCount.increment();
+			activate(entry);
+			return entry;
+		}
+
+		return entry.isOwnedBy(owner) ? entry : null;
+	}
+
+	/**
+	 * Attempts to borrow the specified {@code key} for the {@code owner}.  Under {@link FairnessPolicy#FIFO} a borrower which is arriving, rather than
+	 * returning after being woken, doesn't overtake the waiters queued on the key and only gets an entry it already owns.  The caller holds the lock of the
+	 * stripe associated with the {@code key}
+	 *
+	 * @param key the Pool lookup key
+	 * @param owner the owner of the borrow
+	 * @param arriving true for the first attempt of a borrow
+	 * @return Entry if available
+	 */
+	E attemptToBorrow(PoolKey<K> key, Object owner, boolean arriving) {
+		if (arriving && fairness == FairnessPolicy.FIFO && hasWaiters(key))
+			return findOwned(key, owner);
+		return createOrAttemptToBorrow(key, owner);
+	}
+
+	/**
+	 * Finds the entry of the specified {@code key} which is currently borrowed by the {@code owner}.  The caller holds the stripe lock for the key.
+	 *
+	 * @param key the Pool lookup key
+	 * @param owner the owner of the borrow, {@link PoolableObject#BORROWED} never owns an entry
+	 * @return the owned entry or null
+	 */
+	protected E findOwned(PoolKey<K> key, Object owner) {
+		E entry = pool.get(key);
+		return (entry != null && entry.isOwnedBy(owner)) ? entry : null;
+	}
+
+	/**
+	 * Reserves a slot for a new object of the specified {@code key} by adding a placeholder flagged as creating (see {@link PoolableObject#isCreating()}).  The
+	 * placeholder counts as borrowed until its object has been created and it is either handed out or released.  The caller holds the stripe lock for the key.
+	 *
+	 * @param key the Pool lookup key
+	 * @param borrowing true if a borrower needs the object and may evict idle objects of other keys to stay within the global budget
+	 * @return the placeholder or null if the key already holds the maximum number of objects or the global budget is exhausted
+	 */
+	protected E reserve(PoolKey<K> key, boolean borrowing) {
+		if (pool.containsKey(key))
+			return null;
+		E entry = create(key);
+		if (!reserveCapacity(key, borrowing, entry))
+			return null;
+		entry.<K, E>initialize(key, this).markCreating();
+		installEntry(key, entry);
+		borrowedCount.increment();
+		if (borrowing)
+			stampBorrowed(entry);
+		return entry;
+	}
+
+	/**
+	 * Counts the idle objects of the specified {@code key}.  The caller holds the stripe lock for the key.
+	 *
+	 * @param key the Pool lookup key
+	 * @return the number of idle objects
+	 */
+	protected int idleCount(PoolKey<K> key) {
+		E entry = pool.get(key);
+		return (entry != null && entry.isIdle()) ? 1 : 0;
+	}
+
+	/**
+	 * Creates one new object for the specified {@code key} and restores it into the pool, where it wakes the next waiter of the key.  The object is
+	 * passivated like a released object without counting as a release.  Nothing is created if the key already holds the maximum number of objects or the global budget is exhausted.
+	 *
+	 * @param key the Pool lookup key
+	 * @return true if an object was created, false if the key or the pool is full
+	 * @throws IllegalStateException if the pool has been shutdown
+	 */
+	protected boolean addIdle(PoolKey<K> key) {
+		E entry;
+		Stripe stripe = stripe(key);
+		stripe.lock();
+		try
+		{
+			validateShutdown();
+			entry = reserve(key, Boolean.FALSE);
+			if (entry == null)
+				return false;
+			createOutsideLock(stripe, key, entry);
+		}
+		finally {
+			stripe.unlock();
+		}
+		restore(entry);
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompletableFuture<Void> prewarm(Collection<K> keys, int perKey) {
+		return prewarm(keys, perKey, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompletableFuture<Void> prewarm(Collection<K> keys, int perKey, Executor executor) {
+		validateShutdown();
+		List<CompletableFuture<Void>> creates = new ArrayList<CompletableFuture<Void>>();
+		for (K k : keys) {
+			final PoolKey<K> key = keyFor(k);
+			int missing;
+			Stripe stripe = stripe(key);
+			stripe.lock();
+			try
+			{
+				missing = perKey - idleCount(key);
+			}
+			finally {
+				stripe.unlock();
+			}
+			// one task per object so the objects of a single key are created in parallel as well
+			for (int i = 0; i < missing; i++) {
+				creates.add(CompletableFuture.runAsync(new Runnable() {
+					public void run() {
+						addIdle(key);
+					}
+				}, executor));
+			}
+		}
+		return CompletableFuture.allOf(creates.toArray(new CompletableFuture<?>[creates.size()]));
+	}
+
+	/**
+	 * Tops the specified {@code key} up to the minimum of idle objects in the background.  At most one refill per key runs at a time, a refill stops
+	 * as soon as the key is full or the factory fails.  Safe to call while holding the stripe lock.
+	 *
+	 * @param key the Pool Key which may have dropped below the minimum
+	 */
+	protected void scheduleRefill(final PoolKey<K> key) {
+		if (minIdlePerKey == 0 || isShutdown() || !refilling.add(key))
+			return;
+		ForkJoinPool.commonPool().execute(new Runnable() {
+			public void run() {
+				try
+				{
+					while (!isShutdown() && belowMinIdle(key) && addIdle(key));
+				}
+				catch (RuntimeException e) {
+					// the factory failed or the pool was shutdown, the next invalidation or creation of the key tries again
+				}
+				finally {
+					refilling.remove(key);
+				}
+			}
+		});
+	}
+
+	private boolean belowMinIdle(PoolKey<K> key) {
+		Stripe stripe = stripe(key);
+		stripe.lock();
+		try
+		{
+			return idleCount(key) < minIdlePerKey;
+		}
+		finally {
+			stripe.unlock();
+		}
+	}
+
+	/**
+	 * Adds the {@code waiter} into the waiting list and waits up until the specified deadline.  If the waiter is woken up before the
+	 * specified deadline then true is returned otherwise false.  The waiter will always be removed from the wait list regardless
+	 * of the outcome.  The caller holds the stripe lock, it is released while waiting.
+	 *
+	 * @param waiter the waiter of the borrowing thread
+	 * @param stripe the stripe guarding the key
+	 * @param key the Pool Key associated with this wait
+	 * @param deadline the {@link System#nanoTime()} deadline or 0 to wait indefinitely
+	 * @param woken true if the waiter has been woken before and lost the object, see {@link #requeue(PoolKey, PoolWaiter)}
+	 * @return true if woken
+	 * @throws InterruptedException the interrupted exception
+	 */
+	protected boolean await(final BlockingWaiter<E> waiter, final Stripe stripe, final PoolKey<K> key, long deadline, boolean woken) throws InterruptedException {
+		try
+		{
+			if (woken)
+				requeue(key, waiter);
+			else
+				queue(key, waiter);
+			waiter.markQueued();
+			waitingCount.incrementAndGet();
+			// an object may have been released via the lock free path before we queued
+			if (isAvailable(key)) {
+				if (fairness != FairnessPolicy.FIFO)
+					return true;
+				// the object belongs to whoever is first in line, which need not be us
+				notifyWaiting(key);
+			}
+			return waiter.await(stripe, deadline);
+		}
+		finally {
+			if (unqueue(key, waiter))
+				waitingCount.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Wakes the next waiter to serve for the specified {@code key} if one exists.  The caller must hold the stripe lock for the key.
+	 *
+	 * @param key the Pool Key which has an object available or a free slot
+	 */
+	protected void notifyWaiting(PoolKey<K> key) {
+		PoolWaiter<E> waiter = nextToServe(key);
+		if (waiter != null) {
+			waitingCount.decrementAndGet();
+			waiter.wakeup();
+		}
+	}
+
+	/**
+	 * Removes and returns the waiter an object or a free slot of the specified {@code key} should go to.  Cancelled waiters are dropped on the way and
+	 * so, under {@link FairnessPolicy#EDF}, are waiters whose deadline has already passed since they can no longer make use of it.  The caller must hold the stripe lock for the key.
+	 *
+	 * @param key the Pool Key
+	 * @return the waiter or null if no one is waiting on the key
+	 */
+	protected PoolWaiter<E> nextToServe(PoolKey<K> key) {
+		boolean edf = fairness == FairnessPolicy.EDF;
+		long now = edf ? System.nanoTime() : 0;
+		PoolWaiter<E> waiter;
+		while ((waiter = nextWaiting(key)) != null) {
+			if (waiter.dismiss())
+				waitingCount.decrementAndGet();
+			else if (edf && waiter.isExpired(now)) {
+				waitingCount.decrementAndGet();
+				waiter.expire();
+			}
+			else
+				return waiter;
+		}
+		return null;
+	}
+
+	/**
+	 * Adds the {@code waiter} to the wait queue of the specified {@code key}.  The caller must hold the stripe lock for the key.
+	 *
+	 * @param key the Pool Key being waited on
+	 * @param waiter the waiter waiting to borrow
+	 */
+	protected void queue(PoolKey<K> key, PoolWaiter<E> waiter) {
+		queue(key, waiter, false);
+	}
+
+	/**
+	 * Queues a {@code waiter} again which has been woken but found the object taken.  The caller must hold the stripe lock for the key.
+	 *
+	 * @param key the Pool Key being waited on
+	 * @param waiter the woken waiter
+	 */
+	protected void requeue(PoolKey<K> key, PoolWaiter<E> waiter) {
+		queue(key, waiter, true);
+	}
+
+	/**
+	 * Adds the {@code waiter} to the wait queue of the specified {@code key} at the position given by {@link #enqueue(WaitQueue, PoolWaiter, boolean)}.
+	 * The caller must hold the stripe lock for the key.
+	 *
+	 * @param key the Pool Key being waited on
+	 * @param waiter the waiter waiting to borrow
+	 * @param woken true if the waiter has been woken before and lost the object
+	 */
+	protected void queue(PoolKey<K> key, PoolWaiter<E> waiter, boolean woken) {
+		WaitQueue<E> queue = waiting.get(key);
+		if (queue == null) {
+			queue = new WaitQueue<E>();
+			waiting.put(key, queue);
+		}
+		enqueue(queue, waiter, woken);
+	}
+
+	/**
+	 * Adds the {@code waiter} to the {@code queue} as the fairness policy orders it among the waiters of its priority.  Under {@link FairnessPolicy#LIFO}
+	 * it goes first, under {@link FairnessPolicy#EDF} by deadline and otherwise last, except that under {@link FairnessPolicy#FIFO} a woken waiter which
+	 * lost the object keeps its place at the head.
+	 *
+	 * @param queue the wait queue of the key
+	 * @param waiter the waiter waiting to borrow
+	 * @param woken true if the waiter has been woken before and lost the object
+	 */
+	protected void enqueue(WaitQueue<E> queue, PoolWaiter<E> waiter, boolean woken) {
+		if (fairness == FairnessPolicy.LIFO || (woken && fairness == FairnessPolicy.FIFO))
+			queue.addFirst(waiter);
+		else if (fairness == FairnessPolicy.EDF)
+			queue.addByDeadline(waiter);
+		else
+			queue.add(waiter);
+	}
+
+	/**
+	 * Removes the {@code waiter} from the wait queue of the specified {@code key}.  The caller must hold the stripe lock for the key.
+	 *
+	 * @param key the Pool Key being waited on
+	 * @param waiter the waiter to remove
+	 * @return true if the waiter was still queued
+	 */
+	protected boolean unqueue(PoolKey<K> key, PoolWaiter<E> waiter) {
+		WaitQueue<E> queue = waiting.get(key);
+		if (queue == null || !queue.remove(waiter))
+			return false;
+		if (queue.isEmpty())
+			waiting.remove(key);
+		return true;
+	}
+
+	/**
+	 * Removes and returns the waiter at the head of the wait queue of the specified {@code key}.  The caller must hold the stripe lock for the key.
+	 *
+	 * @param key the Pool Key
+	 * @return the waiter or null if no one is waiting on the key
+	 */
+	protected PoolWaiter<E> nextWaiting(PoolKey<K> key) {
+		WaitQueue<E> queue = waiting.get(key);
+		if (queue == null)
+			return null;
+		PoolWaiter<E> waiter = queue.poll();
+		if (queue.isEmpty())
+			waiting.remove(key);
+		return waiter;
+	}
+
+	/**
+	 * @return the keys which may currently have waiters queued against them
+	 */
+	protected Iterable<PoolKey<K>> waitingKeys() {
+		return waiting.keySet();
+	}
+
+	/**
+	 * Validates the shutdown state. If true then a IllegalStateException is thrown
+	 */
+	protected void validateShutdown() {
+		if (isShutdown())
+			throw new IllegalStateException("Pool has been shutdown");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void clear(K key) {
+		if (isShutdown())
+			return;
+
+		PoolKey<K> poolKey = PoolKey.lookup(key);
+		List<E> detached = new ArrayList<E>();
+		Stripe stripe = stripe(poolKey);
+		stripe.lock();
+		try
+		{
+			detach(poolKey, detached);
+		}
+		finally {
+			stripe.unlock();
+		}
+		destroyInBackground(detached);
+		scheduleRefill(poolKey);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int evictIdle() {
+		if (isShutdown())
+			return 0;
+
+		List<E> evicted = new ArrayList<E>();
+		for (PoolKey<K> key : pool.keySet()) {
+			Stripe stripe = stripe(key);
+			stripe.lock();
+			try
+			{
+				// every idle object counts as expired
+				evictIdle(key, Long.MAX_VALUE, evicted);
+			}
+			finally {
+				stripe.unlock();
+			}
+		}
+		destroyInBackground(evicted);
+		return evicted.size();
+	}
+
+	/**
+	 * Detaches the idle objects of the specified {@code key} into {@code detached} and flags its borrowed objects to be destroyed when they are released.
+	 * The caller holds the stripe lock for the key and destroys the detached entries.
+	 *
+	 * @param key the Pool Key being cleared
+	 * @param detached receives the idle entries which have been invalidated and removed from the pool
+	 */
+	protected void detach(PoolKey<K> key, List<E> detached) {
+		E entry = pool.get(key);
+		if (entry == null)
+			return;
+		// flag before trying to take the entry so a concurrent lock free release either sees the flag or leaves the entry idle for us
+		entry.destroyOnRelease();
+		if (entry.tryEvict()) {
+			removeEntry(key, entry);
+			detached.add(entry);
+		}
+	}
+
+	/**
+	 * Detaches an entry which was released via the lock free path while its key was being cleared
+	 *
+	 * @param key the Pool Key of the entry
+	 * @param entry the released entry
+	 */
+	private void discardCleared(PoolKey<K> key, E entry) {
+		List<E> detached = new ArrayList<E>(1);
+		Stripe stripe = stripe(key);
+		stripe.lock();
+		try
+		{
+			if (entry.tryEvict()) {
+				removeEntry(key, entry);
+				detached.add(entry);
+			}
+			notifyWaiting(key);
+		}
+		finally {
+			stripe.unlock();
+		}
+		destroyInBackground(detached);
+	}
+
+	/**
+	 * Destroys the detached {@code entries} on the lifecycle executor, or the common ForkJoinPool if none is configured.  Their units of the global budget
+	 * are returned once each object has been destroyed.
+	 *
+	 * @param entries the invalidated entries which are no longer part of the pool
+	 */
+	protected void destroyInBackground(final List<E> entries) {
+		if (entries.isEmpty())
+			return;
+		Executor executor = (lifecycleExecutor != null) ? lifecycleExecutor : ForkJoinPool.commonPool();
+		executor.execute(new Runnable() {
+			public void run() {
+				for (E entry : entries) {
+					destroyQuietly(entry);
+					releaseCapacity();
+				}
+			}
+		});
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void shutdown() {
+		if (isShutDown)
+			return;
+
+		isShutDown = Boolean.TRUE;
+		if (evictor != null)
+			evictor.cancel();
+		if (management != null)
+			management.unregister();
+		stripes.lockAll();
+		try
+		{
+			// wake everyone still waiting so blocking borrowers fail fast and asynchronous borrowers are completed
+			for (PoolKey<K> key : waitingKeys()) {
+				PoolWaiter<E> waiter;
+				while ((waiter = nextWaiting(key)) != null)
+					waiter.wakeup();
+			}
+			onShutDown();
+			waiting.clear();
+			waitingCount.set(0);
+			pool.clear();
+			borrowedCount.reset();
+			totalCount.set(0);
+			idleLru.clear();
+			idleLruSize.set(0);
+			budgetWaiters.clear();
+			keys.clear();
+		}
+		finally {
+			stripes.unlockAll();
+		}
+	}
+
+	/**
+	 * Used as a hook for extending Pools to trigger cleanup
+	 */
+	protected abstract void onShutDown();
+
+	/**
+	 * Background sweeper which destroys objects that have been idle for longer than the idle timeout.  A sweep walks the keys of the pool in slices of
+	 * {@code batchSize} keys and every key is examined under its own short hold of its stripe lock, so borrowers are never blocked for longer than the
+	 * examination of a single key.  The next slice is scheduled immediately which gives other work on the shared {@link Scheduler} a chance to run in
+	 * between.  Once all keys have been examined the next sweep starts after {@code interval}.  Evicted objects are destroyed in the background.
+	 */
+	class IdleEvictor implements Runnable {
+
+		final long interval;
+		private final int batchSize;
+		private Iterator<PoolKey<K>> cursor;
+		private volatile ScheduledFuture<?> next;
+
+		IdleEvictor(long interval, int batchSize) {
+			this.interval = interval;
+			this.batchSize = batchSize;
+		}
+
+		/**
+		 * Schedules the next slice to run after {@code delayMillis} unless the pool has been shutdown
+		 */
+		void schedule(long delayMillis) {
+			if (!isShutdown())
+				next = Scheduler.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+		}
+
+		/**
+		 * Cancels the next scheduled slice
+		 */
+		void cancel() {
+			ScheduledFuture<?> f = next;
+			if (f != null)
+				f.cancel(false);
+		}
+
+		/**
+		 * Examines the next slice of keys
+		 */
+		@Override
+		public void run() {
+			if (isShutdown())
+				return;
+
+			List<E> evicted = new ArrayList<E>();
+			try
+			{
+				if (cursor == null)
+					cursor = pool.keySet().iterator();
+				long now = System.currentTimeMillis();
+				for (int i = 0; i < batchSize && cursor.hasNext(); i++) {
+					PoolKey<K> key = cursor.next();
+					Stripe stripe = stripe(key);
+					stripe.lock();
+					try
+					{
+						evictIdle(key, now, evicted);
+					}
+					finally {
+						stripe.unlock();
+					}
+				}
+				// destroying may block, keep it off the shared scheduler thread
+				destroyInBackground(evicted);
+			}
+			finally {
+				if (cursor != null && cursor.hasNext())
+					schedule(0);
+				else {
+					cursor = null;
+					schedule(interval);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waiter for a batch borrow, queued on the key which kept the batch from completing.  A wakeup only signals the batch to try again, an object handed
+	 * over directly is declined so it goes to the next waiter and the batch retries as well.
+	 */
+	class BatchWaiter extends PoolWaiter<E> {
+
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition condition = lock.newCondition();
+		private boolean signalled;
+
+		/**
+		 * Waits until this waiter has been woken or the {@code deadline} has passed
+		 *
+		 * @param deadline the {@link System#nanoTime()} deadline or 0 to wait indefinitely
+		 * @return true if woken, false if the deadline has passed
+		 */
+		boolean await(long deadline) throws InterruptedException {
+			lock.lock();
+			try
+			{
+				while (!signalled) {
+					if (deadline == 0)
+						condition.await();
+					else {
+						long remaining = deadline - System.nanoTime();
+						if (remaining <= 0)
+							return false;
+						condition.awaitNanos(remaining);
+					}
+				}
+				signalled = false;
+				return true;
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Takes a wakeup which arrived without being waited for
+		 *
+		 * @return true if this waiter had been woken
+		 */
+		boolean consume() {
+			lock.lock();
+			try
+			{
+				boolean woken = signalled;
+				signalled = false;
+				return woken;
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void wakeup() {
+			lock.lock();
+			try
+			{
+				signalled = true;
+				condition.signalAll();
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public boolean offer(E entry) {
+			wakeup();
+			return false;
+		}
+	}
+
+	/**
+	 * Waiter for an asynchronous borrow.  No thread is parked while waiting, the releasing thread borrows the object on behalf of the waiter while holding the stripe
+	 * lock and completes the future once the lock has been released.  If the object still has to be created, the factory is invoked by that same thread prior to
+	 * completing the future.  Asynchronous borrows are never re-entrant.
+	 */
+	class AsyncBorrow extends PoolWaiter<E> implements Runnable {
+
+		final PoolKey<K> key;
+		final CompletableFuture<IPooledObject<V>> future = new CompletableFuture<IPooledObject<V>>();
+		private final long started = timed ? System.nanoTime() : 0;
+		private ScheduledFuture<?> expiry;
+		/** true once the borrow could not be served right away and has been queued, guarded by the stripe lock */
+		boolean queued;
+
+		AsyncBorrow(PoolKey<K> key) {
+			this.key = key;
+		}
+
+		/**
+		 * Attempts to borrow on behalf of this waiter.  The caller must hold the stripe lock for the key
+		 *
+		 * @param arriving true for the first attempt, false once the waiter has been woken
+		 * @return true if the waiter has been dealt with, false if it needs to wait
+		 */
+		boolean attempt(boolean arriving) {
+			if (isShutdown()) {
+				complete(null, new IllegalStateException("Pool has been shutdown"));
+				return true;
+			}
+			E entry = attemptToBorrow(key, PoolableObject.BORROWED, arriving);
+			if (entry == null)
+				return false;
+			complete(entry, null);
+			return true;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		boolean dismiss() {
+			if (!future.isDone())
+				return false;
+			// cancelled while queued, skip it rather than borrowing an object no one will take
+			if (expiry != null)
+				expiry.cancel(false);
+			counters.cancelledWaits.increment();
+			waited();
+			return true;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void wakeup() {
+			if (!attempt(false)) {
+				requeue(key, this);
+				waitingCount.incrementAndGet();
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public boolean offer(E entry) {
+			if (future.isDone()) {
+				counters.cancelledWaits.increment();
+				waited();
+				return false;
+			}
+			complete(entry, null);
+			return true;
+		}
+
+		/**
+		 * Times this waiter out right away rather than when its expiry fires
+		 */
+		@Override
+		public void expire() {
+			counters.timeouts.increment();
+			timedOut();
+			complete(null, new TimeoutException("Timeout waiting for Pool for Key: " + key));
+		}
+
+		/**
+		 * Schedules this waiter to time out after the given duration
+		 */
+		void expireAfter(long timeout, TimeUnit unit) {
+			expiry = Scheduler.schedule(this, timeout, unit);
+		}
+
+		/**
+		 * Times out this waiter if it is still queued
+		 */
+		@Override
+		public void run() {
+			boolean expired = false;
+			Stripe stripe = stripe(key);
+			stripe.lock();
+			try
+			{
+				if (unqueue(key, this)) {
+					waitingCount.decrementAndGet();
+					expired = true;
+				}
+			}
+			finally {
+				stripe.unlock();
+			}
+			if (expired) {
+				counters.timeouts.increment();
+				timedOut();
+				waited();
+				future.completeExceptionally(new TimeoutException("Timeout waiting for Pool for Key: " + key));
+			}
+		}
+
+		/**
+		 * Completes this waiter with the borrowed {@code entry} or the {@code failure} once the stripe lock has been released
+		 */
+		private void complete(final E entry, final Throwable failure) {
+			if (expiry != null)
+				expiry.cancel(false);
+			if (entry != null && latencies != null)
+				recordLatency(LatencyRecorder.WAIT, key, System.nanoTime() - started);
+			if (entry == null && failure != null && events != null)
+				waited();
+			stripe(key).defer(new Runnable() {
+				public void run() {
+					if (failure != null)
+						future.completeExceptionally(failure);
+					else
+						handoff(entry);
+				}
+			});
+		}
+
+		/**
+		 * Hands the borrowed {@code entry} to the future, creating the underlying object first if required.  Called without holding the stripe lock
+		 */
+		private void handoff(E entry) {
+			if (entry.isCreating()) {
+				try {
+					populate(key, entry);
+				} catch (RuntimeException e) {
+					Stripe stripe = stripe(key);
+					stripe.lock();
+					try {
+						createFailed(key, entry);
+					} finally {
+						stripe.unlock();
+					}
+					future.completeExceptionally(e);
+					return;
+				}
+			}
+			// the borrower cancelled the future while we were obtaining the object, put it back for the next waiter
+			if (future.complete(entry)) {
+				counters.borrows.increment();
+				if (events != null) {
+					waited();
+					events.emit(PoolEvent.Type.BORROWED, key, System.nanoTime() - started);
+				}
+			}
+			else {
+				counters.cancelledWaits.increment();
+				waited();
+				restore(entry);
+			}
+		}
+
+		/**
+		 * Tells the listener this waiter has stopped waiting, unless it never had to wait
+		 */
+		private void waited() {
+			if (events != null && queued)
+				events.emit(PoolEvent.Type.WAITED, key, System.nanoTime() - started);
+		}
+
+		/**
+		 * Tells the listener this waiter timed out
+		 */
+		private void timedOut() {
+			if (events != null)
+				events.emit(PoolEvent.Type.TIMED_OUT, key, System.nanoTime() - started);
+		}
+	}
 
 }
@@ -0,0 +1,143 @@
+package org.pacesys.kbop.internal;
+
+import java.util.concurrent.locks.LockSupport;
+
+import org.pacesys.kbop.internal.LockStripes.Stripe;
+
+/**
+ * Waiter of a blocking borrow.  The borrowing thread parks itself rather than waiting on a Condition of the stripe lock, so one waiter can be reused
+ * for every blocking borrow the thread makes regardless of the stripe of the key.  A pool keeps one waiter per thread, see {@link #begin(int, long)}.
+ *
+ * @param <T> the pool entry type
+ * @author Jeremy Unruh
+ */
+public class BlockingWaiter<T> extends PoolWaiter<T> {
+
+	private volatile Thread thread;
+	private volatile boolean signalled;
+	private T handedOff;
+	private boolean inUse;
+	private boolean queued;
+
+	/**
+	 * Claims this waiter for a borrow by the current thread
+	 *
+	 * @param priority the priority of the borrow
+	 * @param deadline the {@link System#nanoTime()} deadline of the borrow or 0 for none
+	 * @return true if the waiter was free, false if the thread is already using it further up the stack
+	 */
+	boolean begin(int priority, long deadline) {
+		if (inUse)
+			return false;
+		inUse = true;
+		this.priority = priority;
+		this.deadline = deadline;
+		signalled = false;
+		handedOff = null;
+		queued = false;
+		thread = Thread.currentThread();
+		return true;
+	}
+
+	/**
+	 * Returns this waiter once the borrow has finished.  The waiter must no longer be queued
+	 */
+	void end() {
+		thread = null;
+		inUse = false;
+	}
+
+	/**
+	 * Records that the borrow had to be queued on its key.  The caller holds the stripe lock
+	 */
+	void markQueued() {
+		queued = true;
+	}
+
+	/**
+	 * @return true if the borrow has been queued since {@link #begin(int, long)}, false if it was served right away
+	 */
+	boolean wasQueued() {
+		return queued;
+	}
+
+	/**
+	 * Releases the lock of the {@code stripe} held by the caller and parks until this waiter has been woken, the {@code deadline} has passed or the thread
+	 * is interrupted.  Work deferred on the stripe is run as the lock is released, not left until the thread wakes.  The lock is held again when this method
+	 * returns.  A wakeup which races with the deadline or an interrupt wins, the interrupt status is restored in that case so the next wait throws.
+	 *
+	 * @param stripe the stripe guarding the key being waited on
+	 * @param deadline the {@link System#nanoTime()} deadline or 0 to wait indefinitely
+	 * @return true if woken, false if the deadline has passed
+	 * @throws InterruptedException if the thread was interrupted before being woken
+	 */
+	boolean await(Stripe stripe, long deadline) throws InterruptedException {
+		if (signalled) {
+			signalled = false;
+			return true;
+		}
+		boolean interrupted = false;
+		int holds = stripe.unlockFully();
+		try
+		{
+			while (!signalled) {
+				if (Thread.interrupted()) {
+					interrupted = true;
+					break;
+				}
+				if (deadline == 0)
+					LockSupport.park(this);
+				else {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0)
+						break;
+					LockSupport.parkNanos(this, remaining);
+				}
+			}
+		}
+		finally {
+			stripe.relock(holds);
+		}
+		boolean woken = signalled;
+		signalled = false;
+		if (interrupted) {
+			if (!woken)
+				throw new InterruptedException();
+			Thread.currentThread().interrupt();
+		}
+		return woken;
+	}
+
+	/**
+	 * Takes the entry which was handed over via {@link #offer(Object)}.  The caller holds the stripe lock
+	 *
+	 * @return the entry or null if nothing has been handed over
+	 */
+	T takeHandoff() {
+		T entry = handedOff;
+		handedOff = null;
+		return entry;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void wakeup() {
+		signalled = true;
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Accepts the {@code entry} handed over by a releasing thread and wakes the borrower
+	 */
+	@Override
+	public boolean offer(T entry) {
+		if (handedOff != null)
+			return false;
+		handedOff = entry;
+		wakeup();
+		return true;
+	}
+
+}
@@ -0,0 +1,115 @@
+package org.pacesys.kbop.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.pacesys.kbop.PoolEvent;
+import org.pacesys.kbop.PoolKey;
+import org.pacesys.kbop.PoolListener;
+
+/**
+ * Queues the events of a pool and delivers them to its {@link PoolListener} in batches.  Emitting an event is a lock free offer to a queue, the first
+ * event after a delivery schedules the next one on the {@link Scheduler} after a short delay so events raised meanwhile are delivered together.  The
+ * listener itself is invoked on the executor, never on the scheduler thread, and a single delivery drains the queue at a time.
+ *
+ * @param <K> the key type
+ * @author Jeremy Unruh
+ */
+public class EventDispatcher<K> implements Runnable {
+
+	static final long FLUSH_INTERVAL_MILLIS = 10;
+	static final int MAX_PENDING = 1 << 16;
+	private static final int MAX_BATCH = 1024;
+
+	private final PoolListener<K> listener;
+	private final Executor executor;
+	private final ConcurrentLinkedQueue<PoolEvent<K>> queue = new ConcurrentLinkedQueue<PoolEvent<K>>();
+	private final AtomicInteger pending = new AtomicInteger();
+	private final LongAdder dropped = new LongAdder();
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private final List<PoolEvent<K>> batch = new ArrayList<PoolEvent<K>>();
+	private final Runnable deliver = new Runnable() {
+		public void run() {
+			deliver();
+		}
+	};
+
+	EventDispatcher(PoolListener<K> listener, Executor executor) {
+		this.listener = listener;
+		this.executor = executor;
+	}
+
+	/**
+	 * Queues an event for delivery, dropping it if too many events are pending
+	 *
+	 * @param type the event type
+	 * @param key the Pool Key the event belongs to
+	 * @param nanos the duration of the event, see {@link PoolEvent.Type}
+	 */
+	void emit(PoolEvent.Type type, PoolKey<K> key, long nanos) {
+		if (pending.incrementAndGet() > MAX_PENDING) {
+			pending.decrementAndGet();
+			dropped.increment();
+			return;
+		}
+		queue.offer(new PoolEvent<K>(type, key.get(), System.currentTimeMillis(), nanos));
+		if (!scheduled.get() && scheduled.compareAndSet(false, true))
+			Scheduler.schedule(this, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Hands the delivery to the executor, the scheduler thread never runs the listener.  If the executor rejects the delivery the queued events are
+	 * dropped, the next event schedules a delivery again
+	 */
+	@Override
+	public void run() {
+		try {
+			executor.execute(deliver);
+		} catch (RejectedExecutionException e) {
+			int lost = 0;
+			while (queue.poll() != null)
+				lost++;
+			pending.addAndGet(-lost);
+			dropped.add(lost);
+			scheduled.set(false);
+			if (!queue.isEmpty() && scheduled.compareAndSet(false, true))
+				Scheduler.schedule(this, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Delivers the queued events in batches until the queue is empty
+	 */
+	private void deliver() {
+		try {
+			PoolEvent<K> event;
+			do {
+				while (batch.size() < MAX_BATCH && (event = queue.poll()) != null)
+					batch.add(event);
+				pending.addAndGet(-batch.size());
+				long lost = dropped.sumThenReset();
+				if (!batch.isEmpty() || lost > 0) {
+					try {
+						listener.onEvents(batch, lost);
+					} catch (RuntimeException e) {
+						// a failing listener must not stop the delivery of later events
+					}
+				}
+				batch.clear();
+			} while (!queue.isEmpty());
+		} finally {
+			scheduled.set(false);
+			// an event queued after the last poll found the delivery still scheduled and relies on us
+			if (!queue.isEmpty() && scheduled.compareAndSet(false, true))
+				Scheduler.schedule(this, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+}
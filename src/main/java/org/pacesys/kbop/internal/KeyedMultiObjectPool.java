@@ -1,26 +1,45 @@
 package org.pacesys.kbop.internal;
 
-import java.util.Date;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.pacesys.kbop.IKeyedObjectPool;
 import org.pacesys.kbop.IPoolObjectFactory;
-import org.pacesys.kbop.IPooledObject;
+import org.pacesys.kbop.PoolConfig;
+import org.pacesys.kbop.KeyMetricsBuffer;
 import org.pacesys.kbop.PoolKey;
+import org.pacesys.kbop.PoolMetrics;
 import org.pacesys.kbop.PoolMetrics.KeyMetric;
 import org.pacesys.kbop.PoolMetrics.PoolMultiMetrics;
+import org.pacesys.kbop.internal.LockStripes.Stripe;
 
 /**
  * Thread Safe - Single Key to Multiple Object Pool
  * 
+ * While no one waits on a Key an idle Object is borrowed and released with a compare and set on its state, without the stripe lock (see
+ * {@link PoolableObjects}).  The lock is taken when the Key has waiters, when a new Object must be created, for borrows with a token and for the release
+ * of an Object indexed under its owner or one which must be discarded.
+ * 
+ * Every thread keeps a small direct mapped table of the Object it last borrowed or released per Key.  An Object a thread owns is remembered there
+ * when it is borrowed and a slot holding an Object the thread currently owns is not overwritten by another Key, so a re-entrant borrow finds it without
+ * the lock.  A thread whose slot holds an Object of another Key borrows under the lock, where Objects it borrowed under the lock are indexed.
+ * 
+ * With thread affinity enabled (see {@link PoolConfig#threadAffinity(boolean)}) a borrow first tries to reclaim the Object in the thread's slot,
+ * falling back to any idle Object when it is borrowed by someone else.  The remembered Object stays idle in the Key so other threads can steal it.
+ * 
  * @param <K> the key type
  * @param <V> the value type
  * @author Jeremy Unruh
  */
 public class KeyedMultiObjectPool<K, V> extends AbstractKeyedObjectPool<K, V, PoolableObject<V>> implements IKeyedObjectPool.Multi<K, V> {
 
-	private int maxPerKey;
+	private static final int AFFINITY_SLOTS = 16;
+
+	private volatile int maxPerKey;
+	private final boolean threadAffinity;
+	private final ThreadLocal<PoolableObject<V>[]> affinity;
 
 	/**
 	 * Instantiates a new keyed multi object pool.
@@ -28,41 +47,282 @@ public class KeyedMultiObjectPool<K, V> extends AbstractKeyedObjectPool<K, V, Po
 	 * @param factory the factory
 	 */
 	public KeyedMultiObjectPool(IPoolObjectFactory<K, V> factory, int maxPerKey) {
-		super(factory);
+		this(factory, maxPerKey, PoolConfig.get());
+	}
+
+	/**
+	 * Instantiates a new keyed multi object pool.
+	 *
+	 * @param factory the factory
+	 * @param maxPerKey the max objects allocated per key
+	 * @param config the pool configuration
+	 */
+	public KeyedMultiObjectPool(IPoolObjectFactory<K, V> factory, int maxPerKey, PoolConfig config) {
+		super(factory, config);
 		this.maxPerKey = maxPerKey;
+		this.threadAffinity = config.isThreadAffinity();
+		this.affinity = new ThreadLocal<PoolableObject<V>[]>() {
+			@SuppressWarnings({ "unchecked", "rawtypes" })
+			protected PoolableObject<V>[] initialValue() {
+				return new PoolableObject[AFFINITY_SLOTS];
+			}
+		};
+	}
+
+	/**
+	 * Remembers the {@code entry} in the calling thread's slot for its key, unless the slot holds an entry of another key which the thread
+	 * still owns
+	 */
+	private void remember(PoolKey<K> key, PoolableObject<V> entry) {
+		PoolableObject<V>[] slots = affinity.get();
+		int slot = key.hashCode() & (AFFINITY_SLOTS - 1);
+		PoolableObject<V> current = slots[slot];
+		if (current != null && current.isCurrentOwner() && !key.equals(current.getKey()))
+			return;
+		slots[slot] = entry;
 	}
 
+	/**
+	 * @return the entry remembered in the calling thread's slot for the {@code key}, which may belong to another key
+	 */
+	private PoolableObject<V> slotOf(PoolKey<K> key) {
+		return affinity.get()[key.hashCode() & (AFFINITY_SLOTS - 1)];
+	}
 
-	@SuppressWarnings("unchecked")
-	protected void release(IPooledObject<V> borrowedObject, boolean reusable) {
-		lock.lock();
-		if (borrowed.remove(borrowedObject))
+	/**
+	 * Releases the entry without the lock while no one waits on its key, unless it is indexed under its owner or has to be discarded.  Waiters which
+	 * queued meanwhile are woken under the lock after the release
+	 */
+	@Override
+	protected void returnToPool(PoolableObject<V> entry) {
+		PoolKey<K> key = entry.getKey();
+		PoolableObjects<V> pobjs = objectPool(key, Boolean.FALSE);
+		if (pobjs != null && !hasWaiters(key) && entry.indexedOwner == null && !entry.isDestroyOnRelease() && pobjs.getAllocationSize() <= maxPerKey) {
+			if (threadAffinity && (!threadOwnership || entry.releasedBy == Thread.currentThread()))
+				remember(key, entry);
+			markIdle(entry);
+			if (!entry.tryRelease())
+				return;
+			borrowedCount.decrement();
+			pobjs.borrowedObjects.decrement();
+			pobjs.idled(entry);
+			if (entry.isDestroyOnRelease() || pobjs.getAllocationSize() > maxPerKey) {
+				// the key was cleared or shrunk while we were releasing
+				evictReleased(key, pobjs, entry);
+				return;
+			}
+			idled(entry);
+			if (!hasWaiters(key))
+				return;
+			Stripe stripe = stripe(key);
+			stripe.lock();
+			try
+			{
+				notifyWaiting(key);
+			}
+			finally {
+				stripe.unlock();
+			}
+			return;
+		}
+
+		boolean discarded = false;
+		Stripe stripe = stripe(key);
+		stripe.lock();
+		try
 		{
-			PoolableObjects<V> pos = objectPool((PoolKey<K>) borrowedObject.getKey(), Boolean.FALSE);
-			if (pos != null) {
-				if (reusable)
-					factory.passivate(borrowedObject.get());
-				else
-					factory.destroy(borrowedObject.get());
-
-				pos.free(borrowedObject, reusable);
+			// the key may have been cleared while the entry was being passivated or shrunk below its allocation
+			if (entry.isDestroyOnRelease() || isOverAllocated(key))
+				discarded = discard(key, entry);
+			else if (!directHandoff || !transferToWaiter(key, entry))
+			{
+				if (threadAffinity && (!threadOwnership || entry.releasedBy == Thread.currentThread()))
+					remember(key, entry);
+				markIdle(entry);
+				if (entry.tryRelease())
+					released(key, entry, Boolean.TRUE);
 			}
+		}
+		finally {
+			stripe.unlock();
+		}
+		if (discarded)
+			destroy(entry);
+	}
 
-			notifyWaiting(pos);
+	/**
+	 * Evicts the {@code entry} released without the lock if its key has been cleared or holds more objects than allowed, unless someone borrowed it
+	 * meanwhile, and wakes the next waiter of the key
+	 */
+	private void evictReleased(PoolKey<K> key, PoolableObjects<V> pobjs, PoolableObject<V> entry) {
+		List<PoolableObject<V>> evicted = new ArrayList<PoolableObject<V>>(1);
+		Stripe stripe = stripe(key);
+		stripe.lock();
+		try
+		{
+			if ((entry.isDestroyOnRelease() || isOverAllocated(key)) && entry.tryEvict()) {
+				pobjs.evict(entry);
+				evicted.add(entry);
+				dropIfEmpty(key, pobjs);
+			}
+			else if (entry.isIdle())
+				idled(entry);
+			notifyWaiting(key);
+		}
+		finally {
+			stripe.unlock();
 		}
-		lock.unlock();
+		destroyInBackground(evicted);
 	}
 
-	protected void notifyWaiting(PoolableObjects<V> pooledObjects) {
-		PoolWaitFuture<PoolableObject<V>> future = pooledObjects.nextWaiting();
-		if (future != null)
-			waiting.remove(future);
-		else
-			future = waiting.poll();
+	/**
+	 * @return the maximum number of objects per key
+	 */
+	int getMaxPerKey() {
+		return maxPerKey;
+	}
+
+	/**
+	 * @return true if the key holds more objects than allowed since the pool has been shrunk via {@link #resize(int)}
+	 */
+	private boolean isOverAllocated(PoolKey<K> key) {
+		PoolableObjects<V> pobjs = objectPool(key, Boolean.FALSE);
+		return pobjs != null && pobjs.getAllocationSize() > maxPerKey;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected boolean discard(PoolKey<K> key, PoolableObject<V> entry) {
+		if (!entry.tryInvalidate())
+			return false;
+		released(key, entry, Boolean.FALSE);
+		scheduleRefill(key);
+		return true;
+	}
+
+	/**
+	 * Evicts the expired idle objects of the key.  The per key state is dropped once the key holds no objects and has no waiters
+	 * so keys which are no longer used don't accumulate.
+	 */
+	@Override
+	protected void evictIdle(PoolKey<K> key, long now, List<PoolableObject<V>> evicted) {
+		PoolableObjects<V> pobjs = objectPool(key, Boolean.FALSE);
+		if (pobjs == null || !pobjs.waiting.isEmpty())
+			return;
+		pobjs.evictExpired(now, minIdlePerKey, evicted);
+		if (pobjs.getAllocationSize() == 0)
+			removeEntry(key, pobjs);
+	}
 
-		if (future != null) {
-			future.wakeup();
+	/**
+	 * Returns the released {@code entry} to its key (or removes it if not {@code reusable}) and wakes the next waiter.  The caller must hold
+	 * the stripe lock for the key.
+	 */
+	private void released(PoolKey<K> key, PoolableObject<V> entry, boolean reusable) {
+		borrowedCount.decrement();
+		PoolableObjects<V> pos = objectPool(key, Boolean.FALSE);
+		if (pos != null) {
+			pos.borrowedObjects.decrement();
+			pos.free(entry, reusable);
+		}
+		if (reusable)
+			idled(entry);
+		notifyWaiting(key);
+	}
+
+	/**
+	 * Borrows an idle object of the key with a compare and set, with thread affinity the one remembered in the calling thread's slot first.  A thread
+	 * owned borrow uses the slot to find the object the thread already owns, when the slot belongs to another key the owned object may only be indexed
+	 * so the borrow takes the stripe lock, as do borrows with a token
+	 */
+	@Override
+	protected PoolableObject<V> tryAcquireFast(PoolKey<K> key, Object owner) {
+		validateShutdown();
+		boolean tracked = owner != PoolableObject.BORROWED;
+		if (tracked && owner != Thread.currentThread())
+			return null;
+		PoolableObjects<V> pobjs = objectPool(key, Boolean.FALSE);
+		if (pobjs == null)
+			return null;
+		PoolableObject<V> remembered = null;
+		if (tracked || threadAffinity) {
+			remembered = slotOf(key);
+			if (remembered != null && !key.equals(remembered.getKey())) {
+				if (tracked)
+					return null;
+				remembered = null;
+			}
+			if (remembered != null && remembered.isOwnedBy(owner))
+				return remembered;
 		}
+		if (hasWaiters(key))
+			return null;
+		PoolableObject<V> entry = (threadAffinity && remembered != null && remembered.tryAcquire(owner)) ? remembered : pobjs.getFree(owner);
+		if (entry == null)
+			return null;
+		if (tracked)
+			remember(key, entry);
+		borrowedCount.increment();
+		pobjs.borrowedObjects.increment();
+		activate(entry);
+		return entry;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected boolean hasWaiters(PoolKey<K> key) {
+		PoolableObjects<V> pobjs = objectPool(key, Boolean.FALSE);
+		return pobjs != null && !pobjs.waiting.isEmpty();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected boolean isAvailable(PoolKey<K> key) {
+		PoolableObjects<V> pobjs = objectPool(key, Boolean.FALSE);
+		return pobjs != null && pobjs.hasIdle();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void queue(PoolKey<K> key, PoolWaiter<PoolableObject<V>> waiter, boolean woken) {
+		enqueue(objectPool(key).waiting, waiter, woken);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected boolean unqueue(PoolKey<K> key, PoolWaiter<PoolableObject<V>> waiter) {
+		PoolableObjects<V> pobjs = objectPool(key, Boolean.FALSE);
+		if (pobjs == null || !pobjs.unqueue(waiter))
+			return false;
+		dropIfEmpty(key, pobjs);
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected PoolWaiter<PoolableObject<V>> nextWaiting(PoolKey<K> key) {
+		PoolableObjects<V> pobjs = objectPool(key, Boolean.FALSE);
+		return (pobjs != null) ? pobjs.nextWaiting() : null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected Iterable<PoolKey<K>> waitingKeys() {
+		return pool.keySet();
 	}
 
 	PoolableObjects<V> objectPool(PoolKey<K> key) {
@@ -73,49 +333,171 @@ public class KeyedMultiObjectPool<K, V> extends AbstractKeyedObjectPool<K, V, Po
 		PoolableObjects<V> pobjs = (PoolableObjects<V>) pool.get(key);
 		if (pobjs == null && createIfNotFound) {
 			pobjs = new PoolableObjects<V>().initialize(key, this);
-			pool.put(key, pobjs);
+			installEntry(key, pobjs);
 		}
 		return pobjs;
 	}
 
 
 	@Override
-	protected PoolableObject<V> createOrAttemptToBorrow(PoolKey<K> key) {
+	protected PoolableObject<V> createOrAttemptToBorrow(PoolKey<K> key, Object owner) {
 
 		PoolableObjects<V> pobjs = objectPool(key);
-		PoolableObject<V> entry = pobjs.getFree();
+		PoolableObject<V> entry = owned(key, pobjs, owner);
+		if (entry != null)
+			return entry;
 
+		entry = pobjs.getFree(PoolableObject.BORROWED);
 		if (entry != null) {
-			borrowed.add(entry);
-			factory.activate(entry.get());
-			return entry;
+			borrowedCount.increment();
+			pobjs.borrowedObjects.increment();
+			activate(entry);
+			return borrowedBy(key, pobjs, owner, entry);
 		}
 
-		if (pobjs.getAllocationSize() < maxPerKey) {
-			V obj = factory.create(key);
-			entry = pobjs.add(new PoolableObject<V>(obj).initialize(key, this).flagOwner());
-			borrowed.add(entry);
-			return entry;
+		entry = reserve(key, Boolean.TRUE);
+		if (entry != null) {
+			borrowedBy(key, pobjs, owner, entry);
+			scheduleRefill(key);
 		}
-		return null;
+		else
+			dropIfEmpty(key, pobjs);
+		return entry;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected PoolableObject<V> findOwned(PoolKey<K> key, Object owner) {
+		PoolableObjects<V> pobjs = objectPool(key, Boolean.FALSE);
+		return (pobjs != null) ? owned(key, pobjs, owner) : null;
+	}
+
+	/**
+	 * Finds the entry of the key borrowed by the {@code owner}.  The owner index is only touched under the stripe lock, so an entry the owning thread
+	 * borrowed lock free, which is remembered in its slot, is indexed here by the first locked lookup which needs it.  The caller holds the stripe lock
+	 */
+	private PoolableObject<V> owned(PoolKey<K> key, PoolableObjects<V> pobjs, Object owner) {
+		PoolableObject<V> entry = pobjs.getOwned(owner);
+		if (entry != null || owner != Thread.currentThread())
+			return entry;
+		entry = slotOf(key);
+		if (entry == null || !key.equals(entry.getKey()) || !entry.isOwnedBy(owner))
+			return null;
+		return pobjs.own(owner, entry);
+	}
+
+	/**
+	 * Indexes the {@code entry} under its {@code owner} and remembers it in the borrowing thread's slot so a later lock free borrow of the thread
+	 * finds it rather than taking a different object while holding this one
+	 */
+	private PoolableObject<V> borrowedBy(PoolKey<K> key, PoolableObjects<V> pobjs, Object owner, PoolableObject<V> entry) {
+		pobjs.own(owner, entry);
+		if (owner == Thread.currentThread())
+			remember(key, entry);
+		return entry;
+	}
+
+	/**
+	 * Re-indexes an entry released by another owner under the owner it has been handed to
+	 */
+	@Override
+	protected void handedOff(PoolKey<K> key, PoolableObject<V> entry, Object owner) {
+		PoolableObjects<V> pobjs = objectPool(key, Boolean.FALSE);
+		if (pobjs != null)
+			borrowedBy(key, pobjs, owner, entry);
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	protected boolean await(final PoolWaitFuture<PoolableObject<V>> future, final PoolKey<K> key, Date deadline) throws InterruptedException {
+	protected PoolableObject<V> reserve(PoolKey<K> key, boolean borrowing) {
 		PoolableObjects<V> pobjs = objectPool(key);
-		try
-		{
-			pobjs.queue(future);
-			waiting.add(future);
-			return future.await(deadline);
-		}
-		finally {
-			pobjs.unqueue(future);
-			waiting.remove(future);
+		if (pobjs.getAllocationSize() >= maxPerKey)
+			return null;
+		PoolableObject<V> entry = new PoolableObject<V>(null);
+		if (!reserveCapacity(key, borrowing, entry))
+			return null;
+		borrowedCount.increment();
+		pobjs.borrowedObjects.increment();
+		pobjs.add(entry.initialize(key, this).markCreating());
+		if (borrowing)
+			stampBorrowed(entry);
+		return entry;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected boolean canBorrow(PoolKey<K> key, Object owner) {
+		PoolableObjects<V> pobjs = objectPool(key, Boolean.FALSE);
+		return pobjs == null || pobjs.hasIdle() || pobjs.getAllocationSize() < maxPerKey || owned(key, pobjs, owner) != null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected int idleCount(PoolKey<K> key) {
+		PoolableObjects<V> pobjs = objectPool(key, Boolean.FALSE);
+		return (pobjs != null) ? pobjs.getIdleCount() : 0;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void createFailed(PoolKey<K> key, PoolableObject<V> entry) {
+		entry.invalidateState();
+		borrowedCount.decrement();
+		PoolableObjects<V> pobjs = objectPool(key, Boolean.FALSE);
+		if (pobjs != null) {
+			pobjs.borrowedObjects.decrement();
+			pobjs.free(entry, Boolean.FALSE);
 		}
+		releaseCapacity(key, entry);
+		notifyWaiting(key);
+		if (pobjs != null)
+			dropIfEmpty(key, pobjs);
+	}
+
+	/**
+	 * Drops the per key state of a key which holds no objects and has no waiters, such as one a borrow failed or stopped waiting on, so keys which
+	 * never got an object don't accumulate.  The caller holds the stripe lock for the key
+	 */
+	private void dropIfEmpty(PoolKey<K> key, PoolableObjects<V> pobjs) {
+		if (pobjs.getAllocationSize() == 0 && pobjs.waiting.isEmpty())
+			removeEntry(key, pobjs);
+	}
+
+	/**
+	 * Detaches all idle objects of the key and flags the borrowed ones, the key is dropped if it holds no more objects and has no waiters
+	 */
+	@Override
+	protected void detach(PoolKey<K> key, List<PoolableObject<V>> detached) {
+		PoolableObjects<V> pobjs = objectPool(key, Boolean.FALSE);
+		if (pobjs == null)
+			return;
+		pobjs.detach(detached);
+		if (pobjs.getAllocationSize() == 0 && pobjs.waiting.isEmpty())
+			removeEntry(key, pobjs);
+	}
+
+	/**
+	 * Removes the {@code victim} from its key and drops the key once it holds no objects
+	 */
+	@Override
+	protected boolean evictVictim(PoolKey<K> key, PoolableObject<V> victim) {
+		PoolableObjects<V> pobjs = objectPool(key, Boolean.FALSE);
+		if (pobjs == null || !pobjs.waiting.isEmpty() || !victim.tryEvict())
+			return false;
+		pobjs.evict(victim);
+		if (pobjs.getAllocationSize() == 0)
+			removeEntry(key, pobjs);
+		return true;
 	}
 
 	/**
@@ -124,13 +506,95 @@ public class KeyedMultiObjectPool<K, V> extends AbstractKeyedObjectPool<K, V, Po
 	@Override
 	public PoolMultiMetrics<K> getPoolMetrics() {
 		Map<PoolKey<K>, KeyMetric> keyMetrics = new HashMap<PoolKey<K>, KeyMetric>();
-		for (PoolKey<K> k : pool.keySet()) {
-			PoolableObjects<V> pobjs = objectPool(k, Boolean.FALSE);
-			if (pobjs != null) {
-				keyMetrics.put(k, new KeyMetric(pobjs.getAllocationSize(), pobjs.borrowed.size(), pobjs.waiting.size()));
+		for (Map.Entry<PoolKey<K>, PoolableObject<V>> e : pool.entrySet())
+			keyMetrics.put(e.getKey(), keyMetric((PoolableObjects<V>) e.getValue()));
+		return new PoolMultiMetrics<K>(borrowedCount.intValue(), waitingCount.get(), maxPerKey, keyMetrics, counterSnapshot(), latencySnapshot(), keyLatencySnapshot());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void resize(int maxItemsPerKey) {
+		if (maxItemsPerKey < 1)
+			throw new IllegalArgumentException("maxItemsPerKey must be at least 1");
+		int previous = maxPerKey;
+		maxPerKey = maxItemsPerKey;
+		List<PoolableObject<V>> evicted = new ArrayList<PoolableObject<V>>();
+		for (PoolKey<K> key : pool.keySet()) {
+			Stripe stripe = stripe(key);
+			stripe.lock();
+			try
+			{
+				PoolableObjects<V> pobjs = objectPool(key, Boolean.FALSE);
+				if (pobjs == null)
+					continue;
+				if (maxItemsPerKey < previous) {
+					pobjs.shrink(maxItemsPerKey, evicted);
+					if (pobjs.getAllocationSize() == 0 && pobjs.waiting.isEmpty())
+						removeEntry(key, pobjs);
+				}
+				else {
+					// every freed slot may serve one waiter
+					for (int i = pobjs.getAllocationSize(); i < maxItemsPerKey && !pobjs.waiting.isEmpty(); i++)
+						notifyWaiting(key);
+				}
 			}
+			finally {
+				stripe.unlock();
+			}
+		}
+		destroyInBackground(evicted);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public PoolMetrics<K> getAggregateMetrics() {
+		return new PoolMetrics<K>(borrowedCount.intValue(), waitingCount.get(), maxPerKey, pool.size(), counterSnapshot(), latencySnapshot(), null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public KeyMetric getKeyMetrics(K key) {
+		PoolableObjects<V> pobjs = objectPool(PoolKey.lookup(key), Boolean.FALSE);
+		return (pobjs != null) ? keyMetric(pobjs) : null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int fillKeyMetrics(KeyMetricsBuffer<K> buffer) {
+		buffer.clear();
+		for (PoolableObject<V> entry : pool.values()) {
+			PoolableObjects<V> pobjs = (PoolableObjects<V>) entry;
+			buffer.add(pobjs.<K>getUserKey(), pobjs.getAllocationSize(), pobjs.getBorrowedCount(), pobjs.waiting.size());
+		}
+		return buffer.size();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int fillTopKeys(KeyMetricsBuffer<K> buffer, KeyMetricsBuffer.Order order) {
+		buffer.clear();
+		for (PoolableObject<V> entry : pool.values()) {
+			PoolableObjects<V> pobjs = (PoolableObjects<V>) entry;
+			buffer.offer(pobjs.<K>getUserKey(), pobjs.getAllocationSize(), pobjs.getBorrowedCount(), pobjs.waiting.size(), order);
 		}
-		return new PoolMultiMetrics<K>(borrowed.size(), waiting.size(), maxPerKey, keyMetrics);
+		return buffer.size();
+	}
+
+	/**
+	 * Reads the metrics of a key from the values the key publishes for lock free readers
+	 */
+	private KeyMetric keyMetric(PoolableObjects<V> pobjs) {
+		return new KeyMetric(pobjs.getAllocationSize(), pobjs.getBorrowedCount(), pobjs.waiting.size());
 	}
 
 
@@ -2,6 +2,7 @@ package org.pacesys.kbop.internal;
 
 import org.pacesys.kbop.IKeyedObjectPool;
 import org.pacesys.kbop.IPoolObjectFactory;
+import org.pacesys.kbop.PoolConfig;
 import org.pacesys.kbop.PoolKey;
 import org.pacesys.kbop.PoolMetrics;
 
@@ -19,12 +20,16 @@ public class KeyedSingleObjectPool<K,V> extends AbstractKeyedObjectPool<K, V, Po
 		super(factory);
 	}
 
+	public KeyedSingleObjectPool(IPoolObjectFactory<K, V> factory, PoolConfig config) {
+		super(factory, config);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
 	protected PoolableObject<V> create(PoolKey<K> key) {
-		return new PoolableObject<V>(factory.create(key));
+		return new PoolableObject<V>(null);
 	}
 
 	/**
@@ -32,7 +37,15 @@ public class KeyedSingleObjectPool<K,V> extends AbstractKeyedObjectPool<K, V, Po
 	 */
 	@Override
 	public PoolMetrics<K> getPoolMetrics() {
-		return new PoolMetrics<K>(this.borrowed.size(), this.waiting.size(), 1, pool.keySet().size());
+		return new PoolMetrics<K>(borrowedCount.intValue(), waitingCount.get(), 1, pool.size(), counterSnapshot(), latencySnapshot(), keyLatencySnapshot());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public PoolMetrics<K> getAggregateMetrics() {
+		return new PoolMetrics<K>(borrowedCount.intValue(), waitingCount.get(), 1, pool.size(), counterSnapshot(), latencySnapshot(), null);
 	}
 
 	/**
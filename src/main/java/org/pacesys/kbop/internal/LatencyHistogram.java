@@ -0,0 +1,115 @@
+package org.pacesys.kbop.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.pacesys.kbop.PoolMetrics.LatencyMetric;
+
+/**
+ * Concurrent histogram of durations in nanoseconds.  Buckets are log-linear: values below 16ns are counted exactly, above that every power of two is
+ * split into 8 buckets so a reported value is within 12.5% of the recorded one.  Durations beyond 2^40ns (about 18 minutes) share the last bucket.
+ *
+ * Recording takes two atomic adds on one of several stripes of counters, picked by the id of the recording thread, and never locks or allocates.
+ * Snapshots sum the stripes without stopping recorders so a snapshot taken under load may be off by the few values recorded while it was taken.
+ *
+ * @author Jeremy Unruh
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int LINEAR = SUB_BUCKETS << 1;
+	private static final int MAX_EXPONENT = 40;
+	static final int BUCKETS = LINEAR + (MAX_EXPONENT - SUB_BITS) * SUB_BUCKETS;
+
+	/** the per stripe counters, each stripe holds the bucket counts followed by the sum of the recorded values */
+	private final AtomicLongArray counts;
+	private final int stride;
+	private final int stripeMask;
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Creates a new histogram
+	 *
+	 * @param stripes the number of stripes of counters, rounded up to a power of two
+	 */
+	public LatencyHistogram(int stripes) {
+		int n = 1;
+		while (n < stripes)
+			n <<= 1;
+		this.stride = BUCKETS + 1;
+		this.stripeMask = n - 1;
+		this.counts = new AtomicLongArray(n * stride);
+	}
+
+	/**
+	 * Records a duration
+	 *
+	 * @param nanos the duration in nanoseconds, negative values are recorded as 0
+	 */
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		int base = stride * (int) (Thread.currentThread().getId() & stripeMask);
+		counts.getAndIncrement(base + bucket(nanos));
+		counts.getAndAdd(base + BUCKETS, nanos);
+		long m;
+		while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos))
+			;
+	}
+
+	/**
+	 * @return the distribution of the durations recorded so far
+	 */
+	public LatencyMetric snapshot() {
+		long[] merged = new long[BUCKETS];
+		long count = 0;
+		long sum = 0;
+		for (int base = 0; base < counts.length(); base += stride) {
+			for (int i = 0; i < BUCKETS; i++) {
+				long c = counts.get(base + i);
+				merged[i] += c;
+				count += c;
+			}
+			sum += counts.get(base + BUCKETS);
+		}
+		long maxValue = max.get();
+		return new LatencyMetric(count, (count > 0) ? sum / count : 0, valueAt(merged, count, 0.5, maxValue), valueAt(merged, count, 0.9, maxValue),
+				valueAt(merged, count, 0.99, maxValue), valueAt(merged, count, 0.999, maxValue), maxValue);
+	}
+
+	/**
+	 * @return the upper bound of the bucket holding the value at the {@code percentile}, capped at the largest recorded value
+	 */
+	private static long valueAt(long[] buckets, long count, double percentile, long max) {
+		if (count == 0)
+			return 0;
+		long rank = (long) Math.ceil(percentile * count);
+		long seen = 0;
+		for (int i = 0; i < buckets.length; i++) {
+			seen += buckets[i];
+			if (seen >= rank)
+				return Math.min(upperBound(i), max);
+		}
+		return max;
+	}
+
+	static int bucket(long nanos) {
+		if (nanos < LINEAR)
+			return (int) nanos;
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		if (exponent > MAX_EXPONENT)
+			return BUCKETS - 1;
+		int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return LINEAR + (exponent - SUB_BITS - 1) * SUB_BUCKETS + sub;
+	}
+
+	static long upperBound(int bucket) {
+		if (bucket < LINEAR)
+			return bucket;
+		int exponent = (bucket - LINEAR) / SUB_BUCKETS + SUB_BITS + 1;
+		int sub = (bucket - LINEAR) % SUB_BUCKETS;
+		return ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+	}
+
+}
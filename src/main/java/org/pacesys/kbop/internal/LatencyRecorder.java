@@ -0,0 +1,62 @@
+package org.pacesys.kbop.internal;
+
+import org.pacesys.kbop.PoolMetrics.Latencies;
+import org.pacesys.kbop.PoolMetrics.LatencyMetric;
+
+/**
+ * The latency histograms of a pool or of a single key of a pool, one per kind of duration the pool measures
+ *
+ * @author Jeremy Unruh
+ */
+public class LatencyRecorder {
+
+	/** time a blocking or asynchronous borrow spent waiting for its object */
+	static final int WAIT = 0;
+	/** time from borrowing an object to releasing or invalidating it */
+	static final int HOLD = 1;
+	/** time spent in {@link org.pacesys.kbop.IPoolObjectFactory#create(org.pacesys.kbop.PoolKey)} */
+	static final int CREATE = 2;
+	/** time spent in {@link org.pacesys.kbop.IPoolObjectFactory#activate(Object)} */
+	static final int ACTIVATE = 3;
+	/** time spent in {@link org.pacesys.kbop.IPoolObjectFactory#destroy(Object)} */
+	static final int DESTROY = 4;
+
+	private final LatencyHistogram[] histograms = new LatencyHistogram[DESTROY + 1];
+
+	/**
+	 * Creates a new recorder
+	 *
+	 * @param stripes the number of counter stripes of each histogram, see {@link LatencyHistogram#LatencyHistogram(int)}
+	 */
+	LatencyRecorder(int stripes) {
+		for (int i = 0; i < histograms.length; i++)
+			histograms[i] = new LatencyHistogram(stripes);
+	}
+
+	/**
+	 * Records a duration of the specified {@code kind}
+	 *
+	 * @param kind the kind of duration such as {@link #WAIT}
+	 * @param nanos the duration in nanoseconds
+	 */
+	void record(int kind, long nanos) {
+		histograms[kind].record(nanos);
+	}
+
+	/**
+	 * @param kind the kind of duration such as {@link #WAIT}
+	 * @return the distribution of that kind recorded so far
+	 */
+	LatencyMetric snapshot(int kind) {
+		return histograms[kind].snapshot();
+	}
+
+	/**
+	 * @return the distributions recorded so far
+	 */
+	Latencies snapshot() {
+		return new Latencies(histograms[WAIT].snapshot(), histograms[HOLD].snapshot(), histograms[CREATE].snapshot(), histograms[ACTIVATE].snapshot(),
+				histograms[DESTROY].snapshot());
+	}
+
+}
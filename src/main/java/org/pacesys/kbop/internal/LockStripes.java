@@ -0,0 +1,200 @@
+package org.pacesys.kbop.internal;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.pacesys.kbop.PoolKey;
+
+/**
+ * Fixed set of locks which the keys of a Pool are striped across.  A key always maps to the same stripe so all state for a key is guarded by
+ * a single lock while keys on different stripes never contend with each other.
+ *
+ * @author Jeremy Unruh
+ */
+public class LockStripes {
+
+	private static final int MIN_STRIPES = 16;
+
+	private final Stripe[] stripes;
+	private final int mask;
+
+	/**
+	 * Instantiates a new set of lock stripes
+	 *
+	 * @param count the requested number of stripes or 0 for the default.  The value is rounded up to the next power of two
+	 */
+	public LockStripes(int count) {
+		if (count <= 0)
+			count = Math.max(MIN_STRIPES, Runtime.getRuntime().availableProcessors() * 4);
+
+		int size = 1;
+		while (size < count)
+			size <<= 1;
+
+		this.stripes = new Stripe[size];
+		for (int i = 0; i < size; i++)
+			stripes[i] = new Stripe(i);
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Finds the stripe which guards the given {@code key}
+	 *
+	 * @param key the pool key
+	 * @return the stripe for the key
+	 */
+	public Stripe forKey(PoolKey<?> key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return stripes[h & mask];
+	}
+
+	/**
+	 * @return the number of stripes
+	 */
+	public int size() {
+		return stripes.length;
+	}
+
+	/**
+	 * Acquires every stripe lock in order.  Only used for whole pool operations such as shutdown
+	 */
+	void lockAll() {
+		for (Stripe s : stripes)
+			s.lock.lock();
+	}
+
+	/**
+	 * Releases every stripe lock acquired by {@link #lockAll()}
+	 */
+	void unlockAll() {
+		for (int i = stripes.length - 1; i >= 0; i--)
+			stripes[i].unlock();
+	}
+
+	/**
+	 * A single stripe: the lock guarding the keys which hash to it.  Work which must not run while the lock is held (such as completing a future
+	 * and thereby running the caller's callbacks) can be deferred via {@link #defer(Runnable)}, it is run once the lock has been fully released by
+	 * the thread releasing it.  Only one thread drains a stripe's deferred work at a time, work deferred while a drain is in progress is picked up
+	 * by that drain rather than recursing.
+	 */
+	public static class Stripe {
+
+		final ReentrantLock lock = new ReentrantLock();
+		final int index;
+		private final ArrayDeque<Runnable> deferred = new ArrayDeque<Runnable>();
+		private Thread drainer;
+
+		Stripe(int index) {
+			this.index = index;
+		}
+
+		/**
+		 * @return the lock guarding this stripe
+		 */
+		public ReentrantLock getLock() {
+			return lock;
+		}
+
+		/**
+		 * Acquires the stripe lock
+		 */
+		void lock() {
+			lock.lock();
+		}
+
+		/**
+		 * Acquires the stripe lock only if it is free or already held by the current thread
+		 *
+		 * @return true if the lock was acquired
+		 */
+		boolean tryLock() {
+			return lock.tryLock();
+		}
+
+		/**
+		 * Defers the {@code task} until the stripe lock is released.  The caller must hold the lock
+		 *
+		 * @param task the task to run once unlocked
+		 */
+		void defer(Runnable task) {
+			deferred.add(task);
+		}
+
+		/**
+		 * Releases the stripe lock.  If this releases the last hold of the current thread then any deferred tasks are run after the lock
+		 * has been released.  A failing task does not prevent the remaining tasks from running, the first failure is rethrown once all
+		 * tasks have run.
+		 */
+		void unlock() {
+			if (deferred.isEmpty() || drainer != null || lock.getHoldCount() > 1) {
+				lock.unlock();
+				return;
+			}
+			drainer = Thread.currentThread();
+			RuntimeException failure = null;
+			try {
+				while (!deferred.isEmpty()) {
+					Runnable[] tasks = deferred.toArray(new Runnable[deferred.size()]);
+					deferred.clear();
+					lock.unlock();
+					try {
+						for (Runnable task : tasks) {
+							try {
+								task.run();
+							} catch (RuntimeException e) {
+								if (failure == null)
+									failure = e;
+							}
+						}
+					}
+					finally {
+						lock.lock();
+					}
+				}
+			}
+			finally {
+				drainer = null;
+				lock.unlock();
+			}
+			if (failure != null)
+				throw failure;
+		}
+
+		/**
+		 * Releases every hold the current thread has on the stripe lock via {@link #unlock()}, so work deferred while the lock was held is run rather than
+		 * left behind while the thread waits.  The holds are taken again via {@link #relock(int)}.  If a deferred task fails the holds are taken again before
+		 * the failure is rethrown.
+		 *
+		 * @return the number of holds released
+		 */
+		int unlockFully() {
+			int holds = lock.getHoldCount();
+			RuntimeException failure = null;
+			for (int i = 0; i < holds; i++) {
+				try {
+					unlock();
+				} catch (RuntimeException e) {
+					if (failure == null)
+						failure = e;
+				}
+			}
+			if (failure != null) {
+				relock(holds);
+				throw failure;
+			}
+			return holds;
+		}
+
+		/**
+		 * Takes the holds released by {@link #unlockFully()} again
+		 *
+		 * @param holds the number of holds to take
+		 */
+		void relock(int holds) {
+			for (int i = 0; i < holds; i++)
+				lock.lock();
+		}
+	}
+
+}
@@ -0,0 +1,33 @@
+package org.pacesys.kbop.internal;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.pacesys.kbop.PoolMetrics.Counters;
+
+/**
+ * Monotonic counters of the lifecycle events of a pool.  Each counter is a {@link LongAdder} so threads recording the same event concurrently update
+ * separate cells instead of contending on one value, and the counters can be read at any time without a lock.
+ *
+ * @author Jeremy Unruh
+ */
+public class PoolCounters {
+
+	final LongAdder borrows = new LongAdder();
+	final LongAdder releases = new LongAdder();
+	final LongAdder invalidations = new LongAdder();
+	final LongAdder creates = new LongAdder();
+	final LongAdder destroys = new LongAdder();
+	final LongAdder timeouts = new LongAdder();
+	final LongAdder activations = new LongAdder();
+	final LongAdder passivations = new LongAdder();
+	final LongAdder cancelledWaits = new LongAdder();
+
+	/**
+	 * @return the current value of every counter.  Counters are read one after the other, events recorded meanwhile may show in some of them only
+	 */
+	Counters snapshot() {
+		return new Counters(borrows.sum(), releases.sum(), invalidations.sum(), creates.sum(), destroys.sum(), timeouts.sum(), activations.sum(),
+				passivations.sum(), cancelledWaits.sum());
+	}
+
+}
@@ -0,0 +1,214 @@
+package org.pacesys.kbop.internal;
+
+import java.lang.management.ManagementFactory;
+import java.util.Hashtable;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.pacesys.kbop.IKeyedObjectPool;
+import org.pacesys.kbop.KeyMetricsBuffer;
+import org.pacesys.kbop.PoolMXBean;
+import org.pacesys.kbop.PoolMetrics.KeyMetric;
+import org.pacesys.kbop.PoolMetrics.LatencyMetric;
+
+/**
+ * The {@link PoolMXBean} of a pool.  Counters are read straight from the pool's {@link PoolCounters} and latencies from the single histogram asked
+ * for, so a counter or latency read costs a few sums of striped counters.  The top keys and lookups by name scan the keys of the pool.  No read takes
+ * a stripe lock.
+ *
+ * @author Jeremy Unruh
+ */
+public class PoolManagement implements PoolMXBean {
+
+	static final String DOMAIN = "org.pacesys.kbop";
+	private static final int TOP_KEYS = 10;
+
+	private final AbstractKeyedObjectPool<Object, ?, ?> pool;
+	private final ObjectName name;
+
+	private PoolManagement(AbstractKeyedObjectPool<Object, ?, ?> pool, ObjectName name) {
+		this.pool = pool;
+		this.name = name;
+	}
+
+	/**
+	 * Registers the management bean of the {@code pool} with the platform MBean server.  The bean is unregistered when the pool is shutdown
+	 *
+	 * @param pool the pool created by {@link org.pacesys.kbop.Pools}
+	 * @param jmxName the value of the bean's {@code name} key property
+	 * @throws IllegalArgumentException if the name is already in use
+	 */
+	@SuppressWarnings("unchecked")
+	public static void register(IKeyedObjectPool<?, ?> pool, String jmxName) {
+		AbstractKeyedObjectPool<Object, ?, ?> target = (AbstractKeyedObjectPool<Object, ?, ?>) pool;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			Hashtable<String, String> properties = new Hashtable<String, String>();
+			properties.put("type", "KeyedObjectPool");
+			properties.put("name", quoteIfNeeded(jmxName));
+			PoolManagement management = new PoolManagement(target, ObjectName.getInstance(DOMAIN, properties));
+			server.registerMBean(management, management.name);
+			target.management = management;
+		} catch (JMException e) {
+			throw new IllegalArgumentException("Unable to register Pool MBean: " + jmxName, e);
+		}
+	}
+
+	private static String quoteIfNeeded(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			if (":\",=*?\n".indexOf(value.charAt(i)) >= 0)
+				return ObjectName.quote(value);
+		}
+		return value;
+	}
+
+	/**
+	 * Unregisters the bean, failures are ignored since the pool is shutting down
+	 */
+	void unregister() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException e) {
+			// already unregistered
+		}
+	}
+
+	/**
+	 * @return the name the bean is registered under
+	 */
+	public ObjectName getObjectName() {
+		return name;
+	}
+
+	public int getBorrowedCount() {
+		return pool.borrowedCount.intValue();
+	}
+
+	public int getWaitingCount() {
+		return pool.waitingCount.get();
+	}
+
+	public int getKeyCount() {
+		return pool.pool.size();
+	}
+
+	public int getMaxObjectsPerKey() {
+		return (pool instanceof KeyedMultiObjectPool) ? ((KeyedMultiObjectPool<?, ?>) pool).getMaxPerKey() : 1;
+	}
+
+	public long getBorrows() {
+		return pool.counters.borrows.sum();
+	}
+
+	public long getReleases() {
+		return pool.counters.releases.sum();
+	}
+
+	public long getInvalidations() {
+		return pool.counters.invalidations.sum();
+	}
+
+	public long getCreates() {
+		return pool.counters.creates.sum();
+	}
+
+	public long getDestroys() {
+		return pool.counters.destroys.sum();
+	}
+
+	public long getTimeouts() {
+		return pool.counters.timeouts.sum();
+	}
+
+	public long getActivations() {
+		return pool.counters.activations.sum();
+	}
+
+	public long getPassivations() {
+		return pool.counters.passivations.sum();
+	}
+
+	public long getCancelledWaits() {
+		return pool.counters.cancelledWaits.sum();
+	}
+
+	public LatencyMetric getWaitLatency() {
+		return latency(LatencyRecorder.WAIT);
+	}
+
+	public LatencyMetric getHoldLatency() {
+		return latency(LatencyRecorder.HOLD);
+	}
+
+	public LatencyMetric getCreateLatency() {
+		return latency(LatencyRecorder.CREATE);
+	}
+
+	public LatencyMetric getActivateLatency() {
+		return latency(LatencyRecorder.ACTIVATE);
+	}
+
+	public LatencyMetric getDestroyLatency() {
+		return latency(LatencyRecorder.DESTROY);
+	}
+
+	private LatencyMetric latency(int kind) {
+		return (pool.latencies != null) ? pool.latencies.snapshot(kind) : null;
+	}
+
+	public String[] getTopKeysByWaiting() {
+		return topKeys(KeyMetricsBuffer.Order.WAITING);
+	}
+
+	public String[] getTopKeysByBorrowed() {
+		return topKeys(KeyMetricsBuffer.Order.BORROWED);
+	}
+
+	/**
+	 * Formats the top keys as {@code key: waiting=w, borrowed=b, allocated=a}
+	 */
+	private String[] topKeys(KeyMetricsBuffer.Order order) {
+		if (!(pool instanceof KeyedMultiObjectPool))
+			return new String[0];
+		@SuppressWarnings("unchecked")
+		KeyedMultiObjectPool<Object, ?> multi = (KeyedMultiObjectPool<Object, ?>) pool;
+		KeyMetricsBuffer<Object> buffer = new KeyMetricsBuffer<Object>(TOP_KEYS);
+		String[] keys = new String[multi.fillTopKeys(buffer, order)];
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = buffer.getKey(i) + ": waiting=" + buffer.getWaitingCount(i) + ", borrowed=" + buffer.getBorrowedCount(i) + ", allocated="
+					+ buffer.getAllocationSize(i);
+		return keys;
+	}
+
+	public KeyMetric keyMetrics(String key) {
+		if (!(pool instanceof KeyedMultiObjectPool))
+			return null;
+		Object userKey = pool.findKey(key);
+		if (userKey == null)
+			return null;
+		@SuppressWarnings("unchecked")
+		KeyedMultiObjectPool<Object, ?> multi = (KeyedMultiObjectPool<Object, ?>) pool;
+		return multi.getKeyMetrics(userKey);
+	}
+
+	public boolean clear(String key) {
+		Object userKey = pool.findKey(key);
+		if (userKey == null)
+			return false;
+		pool.clear(userKey);
+		return true;
+	}
+
+	public int evictIdle() {
+		return pool.evictIdle();
+	}
+
+	public void resize(int maxObjectsPerKey) {
+		if (!(pool instanceof KeyedMultiObjectPool))
+			throw new UnsupportedOperationException("A Single Pool always holds one Object per Key");
+		((KeyedMultiObjectPool<?, ?>) pool).resize(maxObjectsPerKey);
+	}
+
+}
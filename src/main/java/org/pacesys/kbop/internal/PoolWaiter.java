@@ -0,0 +1,65 @@
+package org.pacesys.kbop.internal;
+
+/**
+ * A party queued against a Pool Key waiting for an object to become available.  Waiters are queued and dequeued by the pool while holding the stripe lock
+ * for the key.
+ * 
+ * @param <T> the pool entry type
+ * @author Jeremy Unruh
+ */
+public abstract class PoolWaiter<T> {
+
+	/** the wait queue this waiter is linked into or null, guarded by the stripe lock */
+	WaitQueue<T> queue;
+
+	/** the neighbours of this waiter in its wait queue, guarded by the stripe lock */
+	PoolWaiter<T> prev;
+	PoolWaiter<T> next;
+
+	/** the priority of the borrow, higher priorities are served first.  Set before the waiter is queued */
+	int priority;
+
+	/** the {@link System#nanoTime()} deadline of the borrow or 0 for none.  Set before the waiter is queued */
+	long deadline;
+
+	/**
+	 * Invoked by the pool while holding the stripe lock once this waiter has been removed from its wait queue because an object (or a free slot) became available
+	 * for its key or the pool is shutting down.
+	 */
+	public abstract void wakeup();
+
+	/**
+	 * Invoked by the pool while holding the stripe lock once this waiter has been removed from its wait queue in order to hand it the released {@code entry}
+	 * directly.  The entry remains borrowed on behalf of this waiter if it is accepted.
+	 *
+	 * @param entry the entry being handed over
+	 * @return true if the entry was accepted, false if this waiter is no longer interested (cancelled or timed out)
+	 */
+	public abstract boolean offer(T entry);
+
+	/**
+	 * Invoked by the pool while holding the stripe lock once this waiter has been removed from its wait queue because its deadline has passed and it is
+	 * no longer worth serving.  A waiter which times out on its own doesn't need to do anything.
+	 */
+	public void expire() {
+	}
+
+	/**
+	 * Invoked by the pool while holding the stripe lock once this waiter has been removed from its wait queue, before it is woken or offered an entry.
+	 * A waiter which has been cancelled in the meantime returns true and is skipped so the object goes to the next waiter instead.
+	 *
+	 * @return true if this waiter is no longer interested and has been dismissed
+	 */
+	boolean dismiss() {
+		return false;
+	}
+
+	/**
+	 * @param now the current {@link System#nanoTime()}
+	 * @return true if this waiter has a deadline which has passed
+	 */
+	boolean isExpired(long now) {
+		return deadline != 0 && deadline - now <= 0;
+	}
+
+}
@@ -1,5 +1,8 @@
 package org.pacesys.kbop.internal;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
 import org.pacesys.kbop.IKeyedObjectPool;
 import org.pacesys.kbop.IPooledObject;
 import org.pacesys.kbop.PoolKey;
@@ -7,17 +10,56 @@ import org.pacesys.kbop.PoolKey;
 /**
  * Internal Implementation of IPooledObject which holds onto the internal Object V, Key and Pool which created this Object
  * 
+ * The borrow state of the Object is kept in a single atomic state word which is either {@link #IDLE}, {@link #INVALID} or the current owner while
+ * borrowed (the owning Thread or {@link org.pacesys.kbop.BorrowToken}, or {@link #BORROWED} when the borrower is not tracked).  This allows an uncontended borrow or release to complete with
+ * a single compare and set without acquiring the pool lock.  A release first moves the state to {@link #RELEASING}, which still counts as borrowed, so only
+ * one of several releases of the same borrow gets to return the Object.
+ * 
+ * When the Pool caps the total number of Objects, an Object joins the Pool's least recently used queue on its first release and stays in it until it
+ * is found invalid.  The time of its last release gives it a second chance when it reaches the head of the queue.
+ * 
  * @param <V> the value type
  * @author Jeremy Unruh
  */
 public class PoolableObject<V> implements IPooledObject<V> {
 
+	/** State of an Object which is available to be borrowed */
+	static final Object IDLE = new String("IDLE");
+	/** State of an Object which has been invalidated and can never be borrowed again */
+	static final Object INVALID = new String("INVALID");
+	/** State of an Object which is borrowed without a tracked owner */
+	static final Object BORROWED = new String("BORROWED");
+	/** State of a borrowed Object whose release has been claimed, see {@link #tryClaimRelease()} */
+	static final Object RELEASING = new String("RELEASING");
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<PoolableObject, Object> STATE = AtomicReferenceFieldUpdater.newUpdater(PoolableObject.class, Object.class, "state");
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<PoolableObject> LRU = AtomicIntegerFieldUpdater.newUpdater(PoolableObject.class, "inLru");
+
 	private long created;
 	private long expiry;
 	private V object;
 	private PoolKey<?> key;
 	private IKeyedObjectPool<?, V> pool;
-	private Thread owner;
+	private volatile Object state = IDLE;
+	private volatile boolean creating;
+	private volatile boolean destroyOnRelease;
+	private volatile int inLru;
+	private volatile long lastUsed;
+	private long lruQueuedAt;
+
+	/** the owner a multi pool has indexed this Object under while it is borrowed, guarded by the stripe lock */
+	Object indexedOwner;
+
+	/** the borrower this Object was released by, set when the release is claimed */
+	Object releasedBy;
+
+	/** the idle Object evicted to make room for this placeholder, destroyed right before this placeholder's object is created.  Guarded by the stripe lock */
+	PoolableObject<?> victim;
+
+	/** the {@link System#nanoTime()} this Object was borrowed at while the pool records latencies, 0 once the hold has been recorded */
+	long borrowedAt;
 
 	/**
 	 * Instantiates a new poolable object.
@@ -46,28 +88,222 @@ public class PoolableObject<V> implements IPooledObject<V> {
 	}
 
 	/**
-	 * Flags the current thread as the new Owner of this Object
+	 * Flags this Object as a placeholder whose underlying object is still being created by the factory
 	 *
 	 * @param <K> the Key wrapped Type
 	 * @param <E> the Entry Type
 	 * @return PoolableObject for method chaining
 	 */
 	@SuppressWarnings("unchecked")
-	<K, E extends PoolableObject<V>> E flagOwner() {
-		this.owner = Thread.currentThread();
+	<K, E extends PoolableObject<V>> E markCreating() {
+		this.creating = true;
+		this.state = BORROWED;
 		return (E) this;
 	}
 
 	/**
-	 * Releases the current owning thread from this Object
+	 * Completes a placeholder with the object created by the factory
+	 *
+	 * @param object the newly created object
+	 */
+	void created(V object) {
+		this.object = object;
+		this.created = System.currentTimeMillis();
+		this.creating = false;
+	}
+
+	/**
+	 * Determines if this Object is a placeholder whose underlying object is still being created
+	 *
+	 * @return true, if creating
+	 */
+	public boolean isCreating() {
+		return creating;
+	}
+
+	/**
+	 * Attempts to move this Object from idle to borrowed by the given {@code owner}
+	 *
+	 * @param owner the owning Thread or token, or {@link #BORROWED} if the owner is not tracked
+	 * @return true if this Object was idle and is now borrowed
+	 */
+	boolean tryAcquire(Object owner) {
+		return state == IDLE && STATE.compareAndSet(this, IDLE, owner);
+	}
+
+	/**
+	 * Attempts to claim the release of this Object by moving it from its borrower to {@link #RELEASING}.  Only one of several releases of the same borrow
+	 * succeeds, the borrower is kept in {@link #releasedBy}
+	 *
+	 * @return true if this Object was borrowed and the caller now releases it
+	 */
+	boolean tryClaimRelease() {
+		for (;;) {
+			Object current = state;
+			if (current == IDLE || current == INVALID || current == RELEASING)
+				return false;
+			if (STATE.compareAndSet(this, current, RELEASING)) {
+				releasedBy = current;
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Attempts to move this Object from borrowed back to idle
+	 *
+	 * @return true if this Object was borrowed and is now idle
+	 */
+	boolean tryRelease() {
+		return transitionFromBorrowed(IDLE);
+	}
+
+	/**
+	 * Attempts to move this Object from borrowed to invalid
+	 *
+	 * @return true if this Object was borrowed and is now invalid
+	 */
+	boolean tryInvalidate() {
+		return transitionFromBorrowed(INVALID);
+	}
+
+	/**
+	 * Attempts to move this Object from its current borrower to an untracked borrower so it can be handed to another borrower without becoming idle
+	 *
+	 * @return true if this Object was borrowed and remains borrowed
+	 */
+	boolean tryTransfer() {
+		return transitionFromBorrowed(BORROWED);
+	}
+
+	private boolean transitionFromBorrowed(Object target) {
+		for (;;) {
+			Object current = state;
+			if (current == IDLE || current == INVALID)
+				return false;
+			if (STATE.compareAndSet(this, current, target))
+				return true;
+		}
+	}
+
+	/**
+	 * Attempts to move this Object from idle to invalid so it can be evicted
+	 *
+	 * @return true if this Object was idle and is now invalid
+	 */
+	boolean tryEvict() {
+		return state == IDLE && STATE.compareAndSet(this, IDLE, INVALID);
+	}
+
+	/**
+	 * Sets the time after which this Object, while idle, may be evicted.  Must be called before the Object is released so the value is published
+	 * by the release
+	 *
+	 * @param expiry the expiry time in milliseconds
+	 */
+	void expireAt(long expiry) {
+		this.expiry = expiry;
+	}
+
+	/**
+	 * Flags this Object to be destroyed instead of returned to the Pool when it is released, used when its key is cleared while it is borrowed
+	 */
+	void destroyOnRelease() {
+		this.destroyOnRelease = true;
+	}
+
+	/**
+	 * @return true if this Object must be destroyed when it is released
+	 */
+	boolean isDestroyOnRelease() {
+		return destroyOnRelease;
+	}
+
+	/**
+	 * Records the time this Object was last released
+	 *
+	 * @param now the current time in nanoseconds
+	 */
+	void touch(long now) {
+		this.lastUsed = now;
+	}
+
+	/**
+	 * Marks this Object as queued in the least recently used queue of the Pool
+	 *
+	 * @param now the current time in nanoseconds
+	 * @return true if the caller must add this Object to the queue, false if it is already queued
+	 */
+	boolean enterLru(long now) {
+		if (inLru != 0 || !LRU.compareAndSet(this, 0, 1))
+			return false;
+		this.lruQueuedAt = now;
+		return true;
+	}
+
+	/**
+	 * Records that this Object has been queued again at the tail of the least recently used queue
+	 *
+	 * @param now the current time in nanoseconds
+	 */
+	void requeued(long now) {
+		this.lruQueuedAt = now;
+	}
+
+	/**
+	 * Marks this Object as no longer queued in the least recently used queue
+	 */
+	void leaveLru() {
+		this.inLru = 0;
+	}
+
+	/**
+	 * @return true if this Object has been released since it was (re)queued in the least recently used queue
+	 */
+	boolean usedSinceQueued() {
+		return lastUsed > lruQueuedAt;
+	}
+
+	/**
+	 * @return true if this Object has been invalidated
+	 */
+	boolean isInvalid() {
+		return state == INVALID;
+	}
+
+	/**
+	 * Moves this Object to invalid regardless of its current state
+	 */
+	void invalidateState() {
+		this.state = INVALID;
+	}
+
+	/**
+	 * @return true if this Object is currently available to be borrowed
+	 */
+	public boolean isIdle() {
+		return state == IDLE;
+	}
+
+	/**
+	 * @return true if this Object is currently borrowed
+	 */
+	public boolean isBorrowed() {
+		Object current = state;
+		return current != IDLE && current != INVALID;
+	}
+
+	/**
+	 * Flags the {@code owner} as the new Owner of this Object.  The Object must already be borrowed on behalf of the owner
 	 *
 	 * @param <K> the Key wrapped Type
-	 * @param <E> the Entry type
+	 * @param <E> the Entry Type
+	 * @param owner the owning Thread or token, or {@link #BORROWED} if the owner is not tracked
 	 * @return PoolableObject for method chaining
 	 */
 	@SuppressWarnings("unchecked")
-	<K, E extends PoolableObject<V>> E releaseOwner() {
-		this.owner = null;
+	<K, E extends PoolableObject<V>> E flagOwner(Object owner) {
+		this.state = owner;
 		return (E) this;
 	}
 
@@ -77,7 +313,17 @@ public class PoolableObject<V> implements IPooledObject<V> {
 	 * @return true, if current owner
 	 */
 	public boolean isCurrentOwner() {
-		return Thread.currentThread().equals(owner);
+		return state == Thread.currentThread();
+	}
+
+	/**
+	 * Determines if this Object is currently borrowed by the specified {@code owner}.  Untracked borrows have no owner
+	 *
+	 * @param owner the Thread or token
+	 * @return true, if owned by {@code owner}
+	 */
+	public boolean isOwnedBy(Object owner) {
+		return owner != BORROWED && state == owner;
 	}
 
 	/**
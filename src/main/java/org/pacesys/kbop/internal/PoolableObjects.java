@@ -1,35 +1,56 @@
 package org.pacesys.kbop.internal;
 
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.pacesys.kbop.IPooledObject;
 
 /**
  * Defines an Key Object Pool which supports multiple objects available for leasing/acquiring
- * 
+ *
+ * The Objects of the Key are kept in a copy on write array which only changes under the stripe lock, when an Object is added or removed.  Whether an
+ * Object is idle or borrowed is solely its own state word, so an idle Object is borrowed with a compare and set on its state and released by setting it
+ * back, both without the lock and without touching any collection.  The Object released last is kept as a hint which a borrow tries first, otherwise
+ * the array is scanned from its start so the Objects created first are preferred and the others may expire.
+ *
+ * Borrowed Objects with a tracked owner are indexed by that owner under the stripe lock so a re-entrant borrow finds the owner's Object without
+ * scanning the borrowed Objects.  The owner index is an identity based hash table which doesn't allocate per entry.  Objects borrowed without the
+ * lock are not indexed, the pool keeps track of those through a per thread slot of the owning thread.
+ *
+ * For metrics the number of borrowed Objects is counted separately, lock free borrows included, so it can be read without the lock just like the
+ * allocation size.
+ *
  * @param <V> Contained Object Type
  * @author Jeremy Unruh
  */
 public class PoolableObjects<V> extends PoolableObject<V> {
 
-	protected final Set<PoolableObject<V>> borrowed;
-	protected final LinkedList<PoolableObject<V>> available;
-	protected final LinkedList<PoolWaitFuture<PoolableObject<V>>> waiting;
+	@SuppressWarnings("rawtypes")
+	private static final PoolableObject[] NONE = new PoolableObject[0];
+
+	protected final Map<Object, PoolableObject<V>> owners;
+	protected final WaitQueue<PoolableObject<V>> waiting;
+	protected final LongAdder borrowedObjects;
+	private volatile PoolableObject<V>[] objects;
+	private volatile PoolableObject<V> lastReleased;
 
 	/**
 	 * Instantiates a new poolable objects.
 	 */
+	@SuppressWarnings("unchecked")
 	public PoolableObjects() {
 		super(null);
-		this.borrowed = new HashSet<PoolableObject<V>>();
-		this.available = new LinkedList<PoolableObject<V>>();
-		this.waiting = new LinkedList<PoolWaitFuture<PoolableObject<V>>>();
+		this.owners = new IdentityHashMap<Object, PoolableObject<V>>();
+		this.waiting = new WaitQueue<PoolableObject<V>>();
+		this.borrowedObjects = new LongAdder();
+		this.objects = NONE;
 	}
 
 	/**
-	 * Frees the borrowed object from the internal Pool
+	 * Frees the borrowed object from the internal Pool.  The caller holds the stripe lock and has already moved the object out of its borrowed state
 	 *
 	 * @param borrowedObject the borrowed object to free
 	 * @param reusable true if the object can be recycled and used for future allocations
@@ -37,90 +58,275 @@ public class PoolableObjects<V> extends PoolableObject<V> {
 	public void free(IPooledObject<V> borrowedObject, boolean reusable) {
 		if (borrowedObject == null) return;
 
-		if (borrowed.remove(borrowedObject))
-		{
-			((PoolableObject<V>)borrowedObject).releaseOwner();
-			if (reusable)
-				available.addFirst((PoolableObject<V>)borrowedObject);
+		PoolableObject<V> entry = (PoolableObject<V>) borrowedObject;
+		disown(entry);
+		if (reusable)
+			idled(entry);
+		else
+			remove(entry);
+	}
+
+	/**
+	 * Makes the {@code entry} which has just been released the next Object a borrow tries.  Safe to call without the lock
+	 *
+	 * @param entry the released entry
+	 */
+	void idled(PoolableObject<V> entry) {
+		lastReleased = entry;
+	}
+
+	/**
+	 * Finds the Poolable Object currently borrowed by the specified {@code owner}
+	 *
+	 * @param owner the owning Thread or token
+	 * @return Poolable Object or null if the owner does not own an object from this pool
+	 */
+	public PoolableObject<V> getOwned(Object owner) {
+		if (owner == BORROWED || owners.isEmpty())
+			return null;
+		PoolableObject<V> entry = owners.get(owner);
+		// the entry may have been handed to someone else or not have been flagged for the owner yet
+		return (entry != null && entry.isOwnedBy(owner)) ? entry : null;
+	}
+
+	/**
+	 * Indexes the borrowed {@code entry} under its {@code owner}, replacing an entry the owner no longer owns.  Untracked borrows are not indexed
+	 *
+	 * @param owner the owning Thread or token
+	 * @param entry the borrowed entry
+	 * @return the entry
+	 */
+	public PoolableObject<V> own(Object owner, PoolableObject<V> entry) {
+		disown(entry);
+		if (owner != BORROWED) {
+			owners.put(owner, entry);
+			entry.indexedOwner = owner;
 		}
+		return entry;
 	}
 
 	/**
-	 * Finds an available Poolable Object to borrow
+	 * Removes the {@code entry} from the owner index
 	 *
-	 * @return Poolable Object or null if we couldn't allocate
+	 * @param entry the entry
 	 */
-	public PoolableObject<V> getFree() {
-		if (!borrowed.isEmpty()) {
-			for (PoolableObject<V> bo : borrowed) {
-				if (bo.isCurrentOwner())
-					return bo;
+	void disown(PoolableObject<V> entry) {
+		Object owner = entry.indexedOwner;
+		if (owner == null)
+			return;
+		entry.indexedOwner = null;
+		if (owners.get(owner) == entry)
+			owners.remove(owner);
+	}
+
+	/**
+	 * Borrows an idle Poolable Object for the {@code owner}, the one released last if it is still idle.  Safe to call without the lock, the borrow is
+	 * not counted
+	 *
+	 * @param owner the owning Thread or token, or {@link #BORROWED} if the owner is not tracked
+	 * @return Poolable Object or null if none is idle
+	 */
+	public PoolableObject<V> getFree(Object owner) {
+		PoolableObject<V> hint = lastReleased;
+		if (hint != null && hint.tryAcquire(owner))
+			return hint;
+		for (PoolableObject<V> obj : objects) {
+			if (obj.tryAcquire(owner))
+				return obj;
+		}
+		return null;
+	}
+
+	/**
+	 * Determines whether any Object is idle.  Safe to call without the lock
+	 *
+	 * @return true if an Object could be borrowed
+	 */
+	public boolean hasIdle() {
+		PoolableObject<V> hint = lastReleased;
+		if (hint != null && hint.isIdle())
+			return true;
+		for (PoolableObject<V> obj : objects) {
+			if (obj.isIdle())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Counts the idle Objects.  Safe to call without the lock
+	 *
+	 * @return the idle count
+	 */
+	public int getIdleCount() {
+		int idle = 0;
+		for (PoolableObject<V> obj : objects) {
+			if (obj.isIdle())
+				idle++;
+		}
+		return idle;
+	}
+
+	/**
+	 * Evicts the idle Objects which expired before {@code now}, the Objects created last first.  The caller holds the stripe lock
+	 *
+	 * @param now the current time in milliseconds
+	 * @param minIdle the number of idle Objects which are always kept
+	 * @param evicted receives the evicted Objects
+	 */
+	public void evictExpired(long now, int minIdle, List<PoolableObject<V>> evicted) {
+		PoolableObject<V>[] objs = objects;
+		int idle = getIdleCount();
+		int count = evicted.size();
+		for (int i = objs.length - 1; i >= 0 && idle > minIdle; i--) {
+			PoolableObject<V> obj = objs[i];
+			if (obj.isIdle() && obj.isExpired(now) && obj.tryEvict()) {
+				evicted.add(obj);
+				idle--;
 			}
 		}
-		if (!available.isEmpty()) {
-			PoolableObject<V> obj = available.remove();
-			borrowed.add(obj);
-			return obj;
+		if (evicted.size() > count)
+			removeInvalid();
+	}
+
+	/**
+	 * Evicts idle Objects, the Objects created last first, until no more than {@code max} Objects are allocated or none is idle.  The caller holds the
+	 * stripe lock
+	 *
+	 * @param max the maximum number of Objects to keep
+	 * @param evicted receives the evicted Objects
+	 */
+	public void shrink(int max, List<PoolableObject<V>> evicted) {
+		PoolableObject<V>[] objs = objects;
+		int size = objs.length;
+		for (int i = objs.length - 1; i >= 0 && size > max; i--) {
+			if (objs[i].tryEvict()) {
+				evicted.add(objs[i]);
+				size--;
+			}
 		}
-		return null;
+		if (size < objs.length)
+			removeInvalid();
+	}
+
+	/**
+	 * Removes the idle {@code victim} which has been evicted to make room for an Object of another Key.  The caller holds the stripe lock
+	 *
+	 * @param victim the evicted Object
+	 */
+	public void evict(PoolableObject<V> victim) {
+		remove(victim);
+	}
+
+	/**
+	 * Removes all idle Objects and flags the borrowed Objects to be destroyed when they are released.  The flag is set first so an Object released
+	 * without the lock meanwhile is either removed here or sees the flag.  The caller holds the stripe lock
+	 *
+	 * @param detached receives the removed Objects
+	 */
+	public void detach(List<PoolableObject<V>> detached) {
+		PoolableObject<V>[] objs = objects;
+		for (PoolableObject<V> obj : objs) {
+			obj.destroyOnRelease();
+			if (obj.tryEvict())
+				detached.add(obj);
+		}
+		removeInvalid();
 	}
 
 	/**
-	 * Adds the Poolable Object to the borrowed list
+	 * Adds the borrowed Poolable Object.  The caller holds the stripe lock
 	 *
 	 * @param entry the entry
 	 * @return the poolable object
 	 */
 	public PoolableObject<V> add(final PoolableObject<V> entry) {
-		borrowed.add(entry);
+		PoolableObject<V>[] objs = objects;
+		PoolableObject<V>[] grown = Arrays.copyOf(objs, objs.length + 1);
+		grown[objs.length] = entry;
+		objects = grown;
 		return entry;
 	}
 
 	/**
-	 * Queues the {@code future} into the waiting list
+	 * Removes the {@code entry}.  The caller holds the stripe lock
 	 *
-	 * @param future the future who is waiting to borrow from this pool
+	 * @param entry the entry
+	 */
+	void remove(PoolableObject<V> entry) {
+		PoolableObject<V>[] objs = objects;
+		for (int i = 0; i < objs.length; i++) {
+			if (objs[i] == entry) {
+				PoolableObject<V>[] shrunk = Arrays.copyOf(objs, objs.length - 1);
+				System.arraycopy(objs, i + 1, shrunk, i, objs.length - i - 1);
+				objects = shrunk;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Removes the Objects which have been invalidated.  The caller holds the stripe lock, under which all Objects of the Key are invalidated
 	 */
-	public void queue(final PoolWaitFuture<PoolableObject<V>> future) {
-		if (future == null) return;
-		waiting.add(future);
+	@SuppressWarnings("unchecked")
+	private void removeInvalid() {
+		PoolableObject<V>[] objs = objects;
+		PoolableObject<V>[] live = new PoolableObject[objs.length];
+		int size = 0;
+		for (PoolableObject<V> obj : objs) {
+			if (!obj.isInvalid())
+				live[size++] = obj;
+		}
+		objects = (size == 0) ? NONE : Arrays.copyOf(live, size);
 	}
 
 	/**
-	 * Removes the specified {@code future} from the current waiting queue
+	 * Removes the specified {@code waiter} from the current waiting queue
 	 *
-	 * @param future the future
+	 * @param waiter the waiter
+	 * @return true if the waiter was queued
 	 */
-	public void unqueue(final PoolWaitFuture<PoolableObject<V>> future) {
-		if (future == null) return;
-		waiting.remove(future);
+	public boolean unqueue(final PoolWaiter<PoolableObject<V>> waiter) {
+		if (waiter == null) return false;
+		return waiting.remove(waiter);
 	}
 
 
 	/**
-	 * Gets the allocation size.
+	 * Gets the allocation size, safe to read without holding the lock.
 	 *
 	 * @return the allocation size
 	 */
 	public int getAllocationSize() {
-		return available.size() + borrowed.size();
+		return objects.length;
+	}
+
+	/**
+	 * Gets the number of borrowed Objects, safe to read without holding the lock.
+	 *
+	 * @return the borrowed count
+	 */
+	public int getBorrowedCount() {
+		return borrowedObjects.intValue();
 	}
 
 	/**
-	 * Finds the next Future who is waiting to borrow from this pool or null
+	 * Finds the next Waiter who is waiting to borrow from this pool or null
 	 *
-	 * @return the future who has been waiting or null if no waiters
+	 * @return the waiter who has been waiting or null if no waiters
 	 */
-	public PoolWaitFuture<PoolableObject<V>> nextWaiting() {
+	public PoolWaiter<PoolableObject<V>> nextWaiting() {
 		return waiting.poll();
 	}
 
 	/**
 	 * Cleans up current resources
 	 */
+	@SuppressWarnings("unchecked")
 	void shutdown() {
-		available.clear();
+		owners.clear();
 		waiting.clear();
-		available.clear();
+		objects = NONE;
+		lastReleased = null;
 	}
 }
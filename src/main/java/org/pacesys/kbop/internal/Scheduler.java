@@ -0,0 +1,46 @@
+package org.pacesys.kbop.internal;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared daemon scheduler used by all Pools for timed work such as expiring asynchronous borrows and evicting idle objects.  The scheduler thread is created on first use
+ * and never blocks the JVM from exiting.  Scheduled tasks must be short and never block.
+ *
+ * @author Jeremy Unruh
+ */
+public final class Scheduler {
+
+	private Scheduler() { }
+
+	private static class Holder {
+		static final ScheduledThreadPoolExecutor EXECUTOR = create();
+
+		private static ScheduledThreadPoolExecutor create() {
+			ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "kbop-scheduler");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			executor.setRemoveOnCancelPolicy(true);
+			return executor;
+		}
+	}
+
+	/**
+	 * Schedules the {@code task} to run once after the given delay
+	 *
+	 * @param task the task to run
+	 * @param delay the delay
+	 * @param unit the unit of the delay
+	 * @return the scheduled future which can be used to cancel the task
+	 */
+	public static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+		return Holder.EXECUTOR.schedule(task, delay, unit);
+	}
+
+}
@@ -0,0 +1,159 @@
+package org.pacesys.kbop.internal;
+
+/**
+ * Queue of waiters for a single Pool Key, always served from the head.  Waiters are ordered by their {@link PoolWaiter#priority}, highest first, and
+ * within the same priority by the position the pool's fairness policy gives them: behind (see {@link #add(PoolWaiter)}), ahead of (see
+ * {@link #addFirst(PoolWaiter)}) or by deadline among (see {@link #addByDeadline(PoolWaiter)}) the waiters already queued.  Insertion scans from the
+ * end of the waiter's priority band, which is constant time while all waiters share one priority and arrive in order.
+ *
+ * The queue is intrusive: waiters are linked through their own {@link PoolWaiter#prev} and {@link PoolWaiter#next} fields so queueing allocates nothing
+ * and a waiter which times out or is cancelled is unlinked in constant time no matter how many others are waiting.  All mutations happen while holding
+ * the stripe lock for the key, the size is volatile so it can be checked without the lock by the borrow and release fast paths.
+ *
+ * @param <T> the pool entry type
+ * @author Jeremy Unruh
+ */
+public class WaitQueue<T> {
+
+	private PoolWaiter<T> head;
+	private PoolWaiter<T> tail;
+	private volatile int size;
+
+	/**
+	 * Adds the {@code waiter} behind every waiter of the same or a higher priority.  The waiter must not be queued elsewhere
+	 *
+	 * @param waiter the waiter
+	 */
+	public void add(PoolWaiter<T> waiter) {
+		PoolWaiter<T> prev = tail;
+		while (prev != null && prev.priority < waiter.priority)
+			prev = prev.prev;
+		insertAfter(prev, waiter);
+	}
+
+	/**
+	 * Adds the {@code waiter} ahead of every waiter of the same or a lower priority so it is the next of its priority to be polled.  The waiter must not
+	 * be queued elsewhere
+	 *
+	 * @param waiter the waiter
+	 */
+	public void addFirst(PoolWaiter<T> waiter) {
+		PoolWaiter<T> next = head;
+		while (next != null && next.priority > waiter.priority)
+			next = next.next;
+		insertAfter((next != null) ? next.prev : tail, waiter);
+	}
+
+	/**
+	 * Adds the {@code waiter} behind every waiter of a higher priority and every waiter of the same priority whose deadline is not later.  Waiters
+	 * without a deadline go behind those which have one.  The waiter must not be queued elsewhere
+	 *
+	 * @param waiter the waiter
+	 */
+	public void addByDeadline(PoolWaiter<T> waiter) {
+		PoolWaiter<T> prev = tail;
+		while (prev != null && (prev.priority < waiter.priority || (prev.priority == waiter.priority && isLater(prev.deadline, waiter.deadline))))
+			prev = prev.prev;
+		insertAfter(prev, waiter);
+	}
+
+	/**
+	 * Removes the specified {@code waiter} from the queue
+	 *
+	 * @param waiter the waiter
+	 * @return true if the waiter was queued
+	 */
+	public boolean remove(PoolWaiter<T> waiter) {
+		// woken waiters have already been polled
+		if (waiter.queue != this)
+			return false;
+		unlink(waiter);
+		return true;
+	}
+
+	/**
+	 * Removes and returns the waiter at the head of the queue, the next one to serve
+	 *
+	 * @return the waiter or null if the queue is empty
+	 */
+	public PoolWaiter<T> poll() {
+		PoolWaiter<T> waiter = head;
+		if (waiter != null)
+			unlink(waiter);
+		return waiter;
+	}
+
+	/**
+	 * Removes all waiters
+	 */
+	public void clear() {
+		PoolWaiter<T> waiter = head;
+		while (waiter != null) {
+			PoolWaiter<T> next = waiter.next;
+			waiter.queue = null;
+			waiter.prev = null;
+			waiter.next = null;
+			waiter = next;
+		}
+		head = null;
+		tail = null;
+		size = 0;
+	}
+
+	/**
+	 * @return the number of queued waiters, safe to read without holding the lock
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return true if no one is waiting
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return true if deadline {@code a} is later than deadline {@code b}, 0 being no deadline at all
+	 */
+	private static boolean isLater(long a, long b) {
+		if (a == 0)
+			return b != 0;
+		return b != 0 && a - b > 0;
+	}
+
+	private void insertAfter(PoolWaiter<T> prev, PoolWaiter<T> waiter) {
+		PoolWaiter<T> next = (prev != null) ? prev.next : head;
+		waiter.queue = this;
+		waiter.prev = prev;
+		waiter.next = next;
+		if (prev == null)
+			head = waiter;
+		else
+			prev.next = waiter;
+		if (next == null)
+			tail = waiter;
+		else
+			next.prev = waiter;
+		size++;
+	}
+
+	private void unlink(PoolWaiter<T> waiter) {
+		PoolWaiter<T> prev = waiter.prev;
+		PoolWaiter<T> next = waiter.next;
+		if (prev == null)
+			head = next;
+		else
+			prev.next = next;
+		if (next == null)
+			tail = prev;
+		else
+			next.prev = prev;
+		waiter.queue = null;
+		waiter.prev = null;
+		waiter.next = null;
+		size--;
+	}
+
+}
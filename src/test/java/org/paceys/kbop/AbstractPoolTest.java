@@ -45,4 +45,24 @@ public abstract class AbstractPoolTest<P extends IKeyedObjectPool<String, String
 		return pool;
 	}
 
+	/**
+	 * Factory for tests which need a Pool of their own.  Every object created is a distinct String equal to its Key, so tests can tell objects apart by
+	 * identity
+	 */
+	static class TestFactory implements IPoolObjectFactory<String, String> {
+
+		public String create(PoolKey<String> key) {
+			return new String(key.get());
+		}
+
+		public void activate(String object) {
+		}
+
+		public void passivate(String object) {
+		}
+
+		public void destroy(String object) {
+		}
+	}
+
 }
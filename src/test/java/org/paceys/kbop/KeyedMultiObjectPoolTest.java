@@ -1,18 +1,46 @@
 package org.paceys.kbop;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.pacesys.kbop.BorrowToken;
 import org.pacesys.kbop.IKeyedObjectPool;
 import org.pacesys.kbop.IPooledObject;
+import org.pacesys.kbop.KeyMetricsBuffer;
+import org.pacesys.kbop.PoolConfig;
+import org.pacesys.kbop.PoolKey;
+import org.pacesys.kbop.PoolMetrics;
+import org.pacesys.kbop.PoolMetrics.KeyMetric;
 import org.pacesys.kbop.PoolMetrics.PoolMultiMetrics;
+import org.pacesys.kbop.Pools;
 import org.testng.annotations.Test;
 
 /**
@@ -122,6 +150,486 @@ public class KeyedMultiObjectPoolTest extends
 		}
 	}
 
+	/**
+	 * Queues many more asynchronous borrows than there are objects.  Each completion releases its object which completes the next pending borrow
+	 * on the releasing thread, all borrows complete without any thread blocking
+	 */
+	@Test
+	public void manyPendingAsyncBorrows() throws Exception {
+		final IKeyedObjectPool.Multi<String, String> pool = Pools.createMultiPool(new TestFactory(), MAX_ITEMS_PER_KEY);
+
+		final int borrows = 20000;
+		final AtomicInteger completed = new AtomicInteger();
+		final List<IPooledObject<String>> held = new ArrayList<IPooledObject<String>>();
+		for (int i = 0; i < MAX_ITEMS_PER_KEY; i++)
+			held.add(pool.borrowAsync(POOL_KEY).get());
+
+		List<CompletableFuture<IPooledObject<String>>> futures = new ArrayList<CompletableFuture<IPooledObject<String>>>();
+		for (int i = 0; i < borrows; i++) {
+			CompletableFuture<IPooledObject<String>> f = pool.borrowAsync(POOL_KEY);
+			f.thenAccept(new Consumer<IPooledObject<String>>() {
+				public void accept(IPooledObject<String> obj) {
+					completed.incrementAndGet();
+					obj.release();
+				}
+			});
+			futures.add(f);
+		}
+		assertEquals(pool.getPoolMetrics().getWaitingCount(), borrows);
+
+		for (IPooledObject<String> obj : held)
+			obj.release();
+
+		assertEquals(completed.get(), borrows);
+		for (CompletableFuture<IPooledObject<String>> f : futures)
+			assertTrue(f.isDone());
+		assertEquals(pool.getPoolMetrics().getWaitingCount(), 0);
+		assertEquals(pool.getPoolMetrics().getBorrowedCount(), 0);
+		assertEquals(pool.getPoolMetrics().getKeyMetrics(POOL_KEY).getAllocationSize(), MAX_ITEMS_PER_KEY);
+		pool.shutdown();
+	}
+
+	/**
+	 * Idle objects are destroyed by the evictor once they outlive the idle timeout, borrowed objects are left alone and the key is dropped once empty
+	 */
+	@Test
+	public void idleObjectsEvicted() throws Exception {
+		final AtomicInteger destroyed = new AtomicInteger();
+		final IKeyedObjectPool.Multi<String, String> pool = Pools.createMultiPool(new TestFactory() {
+			public void destroy(String object) {
+				destroyed.incrementAndGet();
+			}
+		}, MAX_ITEMS_PER_KEY, PoolConfig.get().threadOwnership(false).idleTimeout(50, TimeUnit.MILLISECONDS).evictionInterval(10, TimeUnit.MILLISECONDS));
+
+		try {
+			IPooledObject<String> kept = pool.borrow(POOL_KEY);
+			pool.borrow(POOL_KEY).release();
+			pool.borrow(POOL_KEY).release();
+			assertEquals(pool.getPoolMetrics().getKeyMetrics(POOL_KEY).getAllocationSize(), 2);
+
+			awaitDestroyed(destroyed, 1);
+			assertEquals(pool.getPoolMetrics().getKeyMetrics(POOL_KEY).getAllocationSize(), 1);
+
+			kept.release();
+			awaitDestroyed(destroyed, 2);
+			assertFalse(pool.getPoolMetrics().hasMetricsForKey(POOL_KEY));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * An object a thread keeps reclaiming through its affinity doesn't keep an idle object released before it from being evicted, the evictor checks
+	 * every idle object of the key
+	 */
+	@Test
+	public void idleObjectsEvictedWithThreadAffinity() throws Exception {
+		final AtomicInteger destroyed = new AtomicInteger();
+		final IKeyedObjectPool.Multi<String, String> pool = Pools.createMultiPool(new TestFactory() {
+			public void destroy(String object) {
+				destroyed.incrementAndGet();
+			}
+		}, 2, PoolConfig.get().threadAffinity(true).idleTimeout(50, TimeUnit.MILLISECONDS).evictionInterval(10, TimeUnit.MILLISECONDS));
+		ExecutorService first = Executors.newSingleThreadExecutor();
+		ExecutorService second = Executors.newSingleThreadExecutor();
+		Callable<IPooledObject<String>> borrow = new Callable<IPooledObject<String>>() {
+			public IPooledObject<String> call() throws Exception {
+				return pool.borrow(POOL_KEY, 1, TimeUnit.SECONDS);
+			}
+		};
+		try {
+			final IPooledObject<String> reused = first.submit(borrow).get();
+			final IPooledObject<String> idle = second.submit(borrow).get();
+			first.submit(new Runnable() {
+				public void run() {
+					reused.release();
+				}
+			}).get();
+			// released last, the idle object is the one the next borrow without affinity would try first
+			second.submit(new Runnable() {
+				public void run() {
+					idle.release();
+				}
+			}).get();
+
+			final long deadline = System.currentTimeMillis() + 1000;
+			first.submit(new Callable<Void>() {
+				public Void call() throws Exception {
+					while (destroyed.get() == 0 && System.currentTimeMillis() < deadline) {
+						IPooledObject<String> obj = pool.borrow(POOL_KEY, 1, TimeUnit.SECONDS);
+						assertTrue(obj == reused);
+						obj.release();
+						Thread.sleep(5);
+					}
+					return null;
+				}
+			}).get();
+			assertEquals(destroyed.get(), 1);
+			assertEquals(pool.getPoolMetrics().getKeyMetrics(POOL_KEY).getAllocationSize(), 1);
+		} finally {
+			first.shutdownNow();
+			second.shutdownNow();
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Prewarm creates the requested objects for every key up front and min idle tops a key up again after an invalidation
+	 */
+	@Test
+	public void prewarmAndMinIdleRefill() throws Exception {
+		final AtomicInteger created = new AtomicInteger();
+		final IKeyedObjectPool.Multi<String, String> pool = Pools.createMultiPool(new TestFactory() {
+			public String create(PoolKey<String> key) {
+				created.incrementAndGet();
+				return super.create(key);
+			}
+		}, MAX_ITEMS_PER_KEY, PoolConfig.get().threadOwnership(false).minIdlePerKey(2));
+
+		try {
+			pool.prewarm(Arrays.asList(POOL_KEY, POOL_KEY2), 3).get(5, TimeUnit.SECONDS);
+			assertEquals(created.get(), 6);
+			assertEquals(pool.getPoolMetrics().getKeyMetrics(POOL_KEY).getAllocationSize(), 3);
+			assertEquals(pool.getPoolMetrics().getKeyMetrics(POOL_KEY2).getAllocationSize(), 3);
+			assertEquals(pool.getPoolMetrics().getBorrowedCount(), 0);
+
+			IPooledObject<String> kept = pool.borrow(POOL_KEY);
+			pool.borrow(POOL_KEY).invalidate();
+			long deadline = System.currentTimeMillis() + 5000;
+			while (pool.getPoolMetrics().getKeyMetrics(POOL_KEY).getAllocationSize() < 3 && System.currentTimeMillis() < deadline)
+				Thread.sleep(10);
+			assertEquals(pool.getPoolMetrics().getKeyMetrics(POOL_KEY).getAllocationSize(), 3);
+			assertEquals(created.get(), 7);
+			kept.release();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Once the global cap is reached the least recently used idle object of another key makes room, without an idle object the borrower waits
+	 */
+	@Test
+	public void maxTotalEvictsLeastRecentlyUsed() throws Exception {
+		final List<String> destroyed = new CopyOnWriteArrayList<String>();
+		final IKeyedObjectPool.Multi<String, String> pool = Pools.createMultiPool(new TestFactory() {
+			public void destroy(String object) {
+				destroyed.add(object);
+			}
+		}, MAX_ITEMS_PER_KEY, PoolConfig.get().threadOwnership(false).maxTotal(2));
+
+		try {
+			pool.borrow("A").release();
+			pool.borrow("B").release();
+			IPooledObject<String> c = pool.borrow("C");
+			assertEquals(destroyed, Arrays.asList("A"));
+			assertFalse(pool.getPoolMetrics().hasMetricsForKey("A"));
+
+			final IPooledObject<String> b = pool.borrow("B");
+			try {
+				pool.borrow("D", 50, TimeUnit.MILLISECONDS);
+				fail("expected the borrow to wait for the global budget");
+			} catch (TimeoutException e) { }
+
+			CompletableFuture<IPooledObject<String>> d = pool.borrowAsync("D", 5, TimeUnit.SECONDS);
+			assertFalse(d.isDone());
+			b.release();
+			assertEquals(d.get(5, TimeUnit.SECONDS).get(), "D");
+			assertEquals(destroyed, Arrays.asList("A", "B"));
+			c.release();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Keys a borrow failed or stopped waiting on without an object ever being created are not kept
+	 */
+	@Test
+	public void failedBorrowsLeaveNoKeys() throws Exception {
+		IKeyedObjectPool.Multi<String, String> pool = Pools.createMultiPool(new TestFactory(), MAX_ITEMS_PER_KEY,
+				PoolConfig.get().threadOwnership(false).maxTotal(1));
+		try {
+			IPooledObject<String> held = pool.borrow(POOL_KEY);
+			assertEquals(pool.tryBorrow("tried"), null);
+			try {
+				pool.borrow("blocked", 10, TimeUnit.MILLISECONDS);
+				fail("expected the borrow to wait for the global budget");
+			} catch (TimeoutException e) { }
+			try {
+				pool.borrowAsync("async", 10, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS);
+				fail("expected the borrow to wait for the global budget");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof TimeoutException);
+			}
+
+			PoolMultiMetrics<String> metrics = pool.getPoolMetrics();
+			assertFalse(metrics.hasMetricsForKey("tried"));
+			assertFalse(metrics.hasMetricsForKey("blocked"));
+			assertFalse(metrics.hasMetricsForKey("async"));
+			assertTrue(metrics.hasMetricsForKey(POOL_KEY));
+			held.release();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that a victim evicted for the global cap is destroyed without holding the borrower's stripe, so other keys on the stripe stay borrowable
+	 * while it is torn down
+	 */
+	@Test
+	public void maxTotalDestroysVictimOutsideLock() throws Exception {
+		final CountDownLatch destroying = new CountDownLatch(1);
+		final CountDownLatch proceed = new CountDownLatch(1);
+		final AtomicBoolean released = new AtomicBoolean();
+		final IKeyedObjectPool.Multi<String, String> pool = Pools.createMultiPool(new TestFactory() {
+			public void destroy(String object) {
+				destroying.countDown();
+				try {
+					released.set(proceed.await(2, TimeUnit.SECONDS));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, MAX_ITEMS_PER_KEY, PoolConfig.get().threadOwnership(false).lockStripes(1).maxTotal(2));
+		ExecutorService es = Executors.newSingleThreadExecutor();
+		try {
+			pool.borrow("A").release();
+			pool.borrow("Z").release();
+			Future<IPooledObject<String>> b = es.submit(new Callable<IPooledObject<String>>() {
+				public IPooledObject<String> call() throws Exception {
+					return pool.borrow("B", 5, TimeUnit.SECONDS);
+				}
+			});
+			assertTrue(destroying.await(5, TimeUnit.SECONDS));
+			// the stripe is shared by every key, a batch borrow always takes it and must not wait for the destroy of A
+			pool.borrowAll(Arrays.asList("Z"), 1, TimeUnit.SECONDS).get("Z").release();
+			proceed.countDown();
+			assertEquals(b.get(5, TimeUnit.SECONDS).get(), "B");
+			assertTrue(released.get(), "the batch borrow waited for the destroy");
+			assertFalse(pool.getPoolMetrics().hasMetricsForKey("A"));
+		} finally {
+			proceed.countDown();
+			es.shutdownNow();
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that with thread affinity a thread gets back the object it released last, that another thread steals it when nothing else is available
+	 * and that invalidating a reclaimed object frees its slot.  A reclaimed object is found by re-entrant borrows of its owner
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void threadAffinityReclaimsLastReleased() throws Exception {
+		final IKeyedObjectPool.Multi<String, String> pool = Pools.createMultiPool(new TestFactory(), 2, PoolConfig.get().threadAffinity(true));
+		ExecutorService first = Executors.newSingleThreadExecutor();
+		ExecutorService second = Executors.newSingleThreadExecutor();
+		Callable<IPooledObject<String>> borrow = new Callable<IPooledObject<String>>() {
+			public IPooledObject<String> call() throws Exception {
+				return pool.borrow(POOL_KEY, 1, TimeUnit.SECONDS);
+			}
+		};
+		try {
+			final IPooledObject<String> mine = first.submit(borrow).get();
+			IPooledObject<String> other = second.submit(borrow).get();
+			first.submit(new Runnable() {
+				public void run() {
+					mine.release();
+				}
+			}).get();
+			other.release();
+
+			// the other object was released last and would be tried first without affinity
+			IPooledObject<String> reclaimed = first.submit(borrow).get();
+			assertTrue(reclaimed == mine);
+			// a re-entrant borrow which takes the locked path still finds the reclaimed object
+			Map<String, IPooledObject<String>> again = first.submit(new Callable<Map<String, IPooledObject<String>>>() {
+				public Map<String, IPooledObject<String>> call() throws Exception {
+					return pool.borrowAll(Arrays.asList(POOL_KEY), 1, TimeUnit.SECONDS);
+				}
+			}).get();
+			assertTrue(again.get(POOL_KEY) == mine);
+			reclaimed.release();
+
+			// released again the reclaimed object is back at the head, once it is taken nothing else is free for the first thread so it steals the
+			// second thread's object
+			IPooledObject<String> taken = pool.borrow(POOL_KEY, 1, TimeUnit.SECONDS);
+			assertTrue(taken == mine);
+			IPooledObject<String> stolen = first.submit(borrow).get();
+			assertTrue(stolen == other);
+			stolen.invalidate();
+			taken.release();
+			assertEquals(pool.getPoolMetrics().getKeyMetrics(POOL_KEY).getAllocationSize(), 1);
+		} finally {
+			first.shutdownNow();
+			second.shutdownNow();
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that re-entrant borrows by many owners of the same key each find their own object and that an object is no longer found by its owner once
+	 * it has been released
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void reentrantBorrowsByOwner() throws Exception {
+		IKeyedObjectPool.Multi<String, String> pool = Pools.createMultiPool(new TestFactory(), 64);
+		try {
+			List<BorrowToken> tokens = new ArrayList<BorrowToken>();
+			List<IPooledObject<String>> objs = new ArrayList<IPooledObject<String>>();
+			for (int i = 0; i < 32; i++) {
+				BorrowToken token = BorrowToken.create("token " + i);
+				tokens.add(token);
+				objs.add(pool.borrow(token, POOL_KEY));
+			}
+			for (int i = 0; i < tokens.size(); i++)
+				assertTrue(pool.borrow(tokens.get(i), POOL_KEY) == objs.get(i));
+			assertEquals(pool.getPoolMetrics().getKeyMetrics(POOL_KEY).getBorrowedCount(), 32);
+
+			objs.get(0).release();
+			IPooledObject<String> next = pool.borrow(tokens.get(0), POOL_KEY);
+			assertEquals(pool.getPoolMetrics().getKeyMetrics(POOL_KEY).getBorrowedCount(), 32);
+			assertTrue(pool.borrow(tokens.get(0), POOL_KEY) == next);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that an object the owning thread borrowed without the lock is found again by its re-entrant borrows, with and without the lock, that its
+	 * release leaves it idle in the key and that it is destroyed when released after its key was cleared
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void lockFreeBorrowsStayReentrant() throws Exception {
+		final AtomicInteger destroyed = new AtomicInteger();
+		IKeyedObjectPool.Multi<String, String> pool = Pools.createMultiPool(new TestFactory() {
+			public void destroy(String object) {
+				destroyed.incrementAndGet();
+			}
+		}, 2);
+		try {
+			// created under the lock, the object is idle afterwards and borrowed without the lock from now on
+			pool.borrow(POOL_KEY).release();
+			IPooledObject<String> obj = pool.borrow(POOL_KEY);
+			assertTrue(pool.borrow(POOL_KEY) == obj);
+			assertTrue(pool.borrowAll(Arrays.asList(POOL_KEY), 1, TimeUnit.SECONDS).get(POOL_KEY) == obj);
+			assertEquals(pool.getKeyMetrics(POOL_KEY).getBorrowedCount(), 1);
+			obj.release();
+			assertEquals(pool.getKeyMetrics(POOL_KEY).getBorrowedCount(), 0);
+			assertEquals(pool.getKeyMetrics(POOL_KEY).getAllocationSize(), 1);
+
+			IPooledObject<String> again = pool.borrow(POOL_KEY);
+			assertTrue(again == obj);
+			pool.clear(POOL_KEY);
+			again.release();
+			assertEquals(destroyed.get(), 1);
+			assertEquals(pool.getKeyMetrics(POOL_KEY).getAllocationSize(), 0);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests the lock free per key views: single key lookups, filling a caller supplied buffer and the top keys by waiters and borrowed objects.  The
+	 * affinity path borrows without the lock and must still be counted against its key.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void keyMetricsAreReadIntoBuffers() throws Exception {
+		IKeyedObjectPool.Multi<String, String> pool = Pools.createMultiPool(new TestFactory(), 2, PoolConfig.get().threadOwnership(false).threadAffinity(true));
+		try {
+			pool.borrow("A");
+			pool.borrow("A");
+			pool.borrow("B").release();
+			pool.borrow("B");
+			CompletableFuture<IPooledObject<String>> waiter = pool.borrowAsync("A");
+
+			KeyMetric a = pool.getKeyMetrics("A");
+			assertEquals(a.getAllocationSize(), 2);
+			assertEquals(a.getBorrowedCount(), 2);
+			assertEquals(a.getWaitingCount(), 1);
+			assertEquals(pool.getKeyMetrics("B").getBorrowedCount(), 1);
+			assertEquals(pool.getKeyMetrics("C"), null);
+
+			PoolMetrics<String> aggregate = pool.getAggregateMetrics();
+			assertEquals(aggregate.getBorrowedCount(), 3);
+			assertEquals(aggregate.getWaitingCount(), 1);
+			assertEquals(aggregate.getKeyCount(), 2);
+
+			KeyMetricsBuffer<String> buffer = new KeyMetricsBuffer<String>(1);
+			assertEquals(pool.fillKeyMetrics(buffer), 1);
+			assertTrue(buffer.isTruncated());
+			assertEquals(buffer.getKeyCount(), 2);
+
+			buffer = new KeyMetricsBuffer<String>(2);
+			assertEquals(pool.fillTopKeys(buffer, KeyMetricsBuffer.Order.WAITING), 1);
+			assertEquals(buffer.getKey(0), "A");
+			assertEquals(pool.fillTopKeys(buffer, KeyMetricsBuffer.Order.BORROWED), 2);
+			assertEquals(buffer.getKey(0), "A");
+			assertEquals(buffer.getKey(1), "B");
+			assertEquals(buffer.getBorrowedCount(1), 1);
+			waiter.cancel(false);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests the pool's MBean: attributes read from the counters and histograms, the top keys and the resize, evict and clear operations
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void managementBeanExposesMetricsAndControls() throws Exception {
+		IKeyedObjectPool.Multi<String, String> pool = Pools.createMultiPool(new TestFactory(), 4, PoolConfig.get().threadOwnership(false).recordLatencies(true).jmxName("multi test"));
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("org.pacesys.kbop:type=KeyedObjectPool,name=multi test");
+		try {
+			IPooledObject<String> a = pool.borrow(POOL_KEY);
+			IPooledObject<String> b = pool.borrow(POOL_KEY);
+			IPooledObject<String> c = pool.borrow(POOL_KEY);
+			a.release();
+
+			assertEquals(server.getAttribute(name, "BorrowedCount"), 2);
+			assertEquals(server.getAttribute(name, "Borrows"), 3L);
+			assertEquals(server.getAttribute(name, "Releases"), 1L);
+			assertEquals(server.getAttribute(name, "MaxObjectsPerKey"), 4);
+			assertEquals(((CompositeData) server.getAttribute(name, "WaitLatency")).get("count"), 3L);
+			String[] top = (String[]) server.getAttribute(name, "TopKeysByBorrowed");
+			assertEquals(top.length, 1);
+			assertTrue(top[0].startsWith(POOL_KEY + ":"));
+
+			// the idle object goes right away, the borrowed ones above the new limit once released
+			server.invoke(name, "resize", new Object[] { 1 }, new String[] { int.class.getName() });
+			assertEquals(pool.getKeyMetrics(POOL_KEY).getAllocationSize(), 2);
+			b.release();
+			c.release();
+			assertEquals(pool.getKeyMetrics(POOL_KEY).getAllocationSize(), 1);
+
+			assertEquals(server.invoke(name, "evictIdle", new Object[0], new String[0]), 1);
+			assertEquals(pool.getKeyMetrics(POOL_KEY), null);
+			assertEquals(server.invoke(name, "clear", new Object[] { POOL_KEY }, new String[] { String.class.getName() }), false);
+		} finally {
+			pool.shutdown();
+		}
+		assertFalse(server.isRegistered(name));
+	}
+
+	private static void awaitDestroyed(AtomicInteger destroyed, int expected) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (destroyed.get() < expected && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+		assertEquals(destroyed.get(), expected);
+	}
+
 	/**
 	 * Creates the threaded execution.
 	 * 
@@ -1,20 +1,45 @@
 package org.paceys.kbop;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
+import org.pacesys.kbop.BorrowToken;
+import org.pacesys.kbop.FairnessPolicy;
 import org.pacesys.kbop.IKeyedObjectPool;
 import org.pacesys.kbop.IPoolObjectFactory;
 import org.pacesys.kbop.IPooledObject;
+import org.pacesys.kbop.PoolConfig;
+import org.pacesys.kbop.PoolEvent;
 import org.pacesys.kbop.PoolKey;
+import org.pacesys.kbop.PoolListener;
 import org.pacesys.kbop.PoolMetrics;
 import org.pacesys.kbop.Pools;
 import org.testng.annotations.Test;
@@ -154,6 +179,876 @@ public class KeyedSingleObjectPoolTest extends
 		assertEquals(factory.lifecycleCount, 4);
 	}
 
+	/**
+	 * Tests that a slow factory create for one key does not block borrowers of another key sharing the same lock stripe and that concurrent
+	 * borrowers of the key being created wait on the in-flight creation instead of creating a duplicate
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void slowCreateDoesNotBlockOtherKeys() throws Exception {
+		final CountDownLatch creating = new CountDownLatch(1);
+		final CountDownLatch proceed = new CountDownLatch(1);
+		final AtomicInteger creates = new AtomicInteger();
+		IPoolObjectFactory<String, String> factory = new TestFactory() {
+			public String create(PoolKey<String> key) {
+				creates.incrementAndGet();
+				if (POOL_KEY.equals(key.get())) {
+					creating.countDown();
+					try {
+						proceed.await();
+					} catch (InterruptedException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+				return key.get();
+			}
+		};
+		final IKeyedObjectPool<String, String> pool = Pools.createPool(factory, PoolConfig.get().lockStripes(1));
+		Callable<IPooledObject<String>> borrower = new Callable<IPooledObject<String>>() {
+			public IPooledObject<String> call() throws Exception {
+				return pool.borrow(POOL_KEY, 2, TimeUnit.SECONDS);
+			}
+		};
+
+		ExecutorService es = Executors.newFixedThreadPool(2);
+		try {
+			Future<IPooledObject<String>> first = es.submit(borrower);
+			assertTrue(creating.await(2, TimeUnit.SECONDS));
+			Future<IPooledObject<String>> second = es.submit(borrower);
+
+			IPooledObject<String> other = pool.borrow(POOL_KEY2, 1, TimeUnit.SECONDS);
+			assertEquals(other.get(), POOL_KEY2);
+			other.release();
+
+			proceed.countDown();
+			first.get().release();
+			second.get().release();
+			assertEquals(creates.get(), 2);
+		} finally {
+			es.shutdownNow();
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that a failing factory create releases the reserved slot so the next borrower can create the object
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void failedCreateReleasesSlot() throws Exception {
+		final AtomicInteger creates = new AtomicInteger();
+		IKeyedObjectPool<String, String> pool = Pools.createPool(new TestFactory() {
+			public String create(PoolKey<String> key) {
+				if (creates.incrementAndGet() == 1)
+					throw new IllegalStateException("create failed");
+				return key.get();
+			}
+		});
+		try {
+			pool.borrow(POOL_KEY, 100, TimeUnit.MILLISECONDS);
+			fail("Expected the first create to fail");
+		} catch (IllegalStateException e) {
+		}
+		IPooledObject<String> obj = pool.borrow(POOL_KEY, 100, TimeUnit.MILLISECONDS);
+		assertEquals(obj.get(), POOL_KEY);
+		obj.release();
+		pool.shutdown();
+	}
+
+	/**
+	 * Measures the tail latency of waiters spread across many keys.  Every key is held for a short time while another thread waits on it, since
+	 * a release only wakes a waiter of the released key each waiter should obtain its object shortly after the holder releases it rather than
+	 * waiting out its timeout
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void perKeyWakeupTailLatency() throws Exception {
+		final int keys = 100;
+		final long holdMillis = 20;
+		final IKeyedObjectPool<String, String> pool = Pools.createPool(new TestFactory(), PoolConfig.get().lockStripes(1));
+		final long[] waits = new long[keys];
+		final CountDownLatch held = new CountDownLatch(keys);
+		ExecutorService es = Executors.newFixedThreadPool(keys * 2);
+		try {
+			Future<?>[] futures = new Future<?>[keys * 2];
+			for (int i = 0; i < keys; i++) {
+				final String key = "Key" + i;
+				final int index = i;
+				futures[i * 2] = es.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						IPooledObject<String> obj = pool.borrow(key);
+						held.countDown();
+						Thread.sleep(holdMillis);
+						obj.release();
+						return null;
+					}
+				});
+				futures[i * 2 + 1] = es.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						held.await();
+						long start = System.nanoTime();
+						IPooledObject<String> obj = pool.borrow(key, 5, TimeUnit.SECONDS);
+						waits[index] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+						obj.release();
+						return null;
+					}
+				});
+			}
+			for (Future<?> f : futures)
+				f.get();
+		} finally {
+			es.shutdownNow();
+			pool.shutdown();
+		}
+
+		Arrays.sort(waits);
+		long p99 = waits[(int) Math.ceil(keys * 0.99) - 1];
+		assertTrue(p99 < 1000, "p99 wait of " + p99 + "ms with " + keys + " keys, expected well under the 5s timeout");
+	}
+
+	/**
+	 * Tests that a pending asynchronous borrow is completed by the thread releasing the object
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void borrowAsyncCompletedByReleasingThread() throws Exception {
+		IKeyedObjectPool<String, String> pool = Pools.createPool(new TestFactory());
+		try {
+			CompletableFuture<IPooledObject<String>> first = pool.borrowAsync(POOL_KEY);
+			assertTrue(first.isDone());
+
+			final AtomicReference<Thread> completedBy = new AtomicReference<Thread>();
+			CompletableFuture<IPooledObject<String>> second = pool.borrowAsync(POOL_KEY);
+			second.thenAccept(new Consumer<IPooledObject<String>>() {
+				public void accept(IPooledObject<String> obj) {
+					completedBy.set(Thread.currentThread());
+				}
+			});
+			assertFalse(second.isDone());
+
+			first.get().release();
+			assertTrue(second.isDone());
+			assertSame(completedBy.get(), Thread.currentThread());
+			assertSame(second.get(), first.get());
+			second.get().release();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that an asynchronous borrow times out and fails on shutdown without holding a thread
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void borrowAsyncTimeoutAndShutdown() throws Exception {
+		IKeyedObjectPool<String, String> pool = Pools.createPool(new TestFactory());
+		IPooledObject<String> obj = pool.borrow(POOL_KEY);
+
+		CompletableFuture<IPooledObject<String>> timed = pool.borrowAsync(POOL_KEY, 50, TimeUnit.MILLISECONDS);
+		try {
+			timed.get(2, TimeUnit.SECONDS);
+			fail("Object was obtained");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+
+		CompletableFuture<IPooledObject<String>> pending = pool.borrowAsync(POOL_KEY);
+		pool.shutdown();
+		try {
+			pending.get(2, TimeUnit.SECONDS);
+			fail("Object was obtained");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		obj.release();
+
+		// a borrow made after the shutdown fails through its future rather than throwing
+		CompletableFuture<IPooledObject<String>> late = pool.borrowAsync(POOL_KEY);
+		assertTrue(late.isCompletedExceptionally());
+		try {
+			late.get();
+			fail("Object was obtained");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	/**
+	 * Tests that an object obtained for an async borrow which was cancelled meanwhile goes back to the pool without counting as borrowed, held or released
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void cancelledAsyncBorrowIsRestored() throws Exception {
+		final AtomicReference<CompletableFuture<IPooledObject<String>>> cancel = new AtomicReference<CompletableFuture<IPooledObject<String>>>();
+		IKeyedObjectPool.Single<String, String> pool = Pools.createPool(new TestFactory() {
+			public void activate(String object) {
+				CompletableFuture<IPooledObject<String>> future = cancel.getAndSet(null);
+				if (future != null)
+					future.cancel(false);
+			}
+		}, PoolConfig.get().threadOwnership(false).recordLatencies(true));
+		try {
+			IPooledObject<String> obj = pool.borrow(POOL_KEY);
+			CompletableFuture<IPooledObject<String>> future = pool.borrowAsync(POOL_KEY);
+			cancel.set(future);
+			obj.release();
+			assertTrue(future.isCancelled());
+
+			PoolMetrics<String> metrics = pool.getPoolMetrics();
+			assertEquals(metrics.getCounters().getBorrows(), 1);
+			assertEquals(metrics.getCounters().getReleases(), 1);
+			assertEquals(metrics.getCounters().getCancelledWaits(), 1);
+			assertEquals(metrics.getLatencies().getHold().getCount(), 1);
+			assertSame(pool.tryBorrow(POOL_KEY), obj);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that a release skips a long run of cancelled async borrows without recursing through them and leaves no waiter counted
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void releaseSkipsCancelledAsyncBorrows() throws Exception {
+		IKeyedObjectPool.Single<String, String> pool = Pools.createPool(new TestFactory(), PoolConfig.get().threadOwnership(false));
+		try {
+			IPooledObject<String> obj = pool.borrow(POOL_KEY);
+			for (int i = 0; i < 100000; i++)
+				pool.borrowAsync(POOL_KEY).cancel(false);
+			CompletableFuture<IPooledObject<String>> last = pool.borrowAsync(POOL_KEY);
+			assertEquals(pool.getPoolMetrics().getWaitingCount(), 100001);
+
+			obj.release();
+			assertTrue(last.isDone());
+			assertSame(last.get(), obj);
+			last.get().release();
+
+			PoolMetrics<String> metrics = pool.getPoolMetrics();
+			assertEquals(metrics.getWaitingCount(), 0);
+			assertEquals(metrics.getCounters().getCancelledWaits(), 100000);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that with direct handoff enabled a released object goes straight to the blocked waiter and a newly arriving borrower cannot take it first
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void directHandoffToBlockedWaiter() throws Exception {
+		final IKeyedObjectPool.Single<String, String> pool = Pools.createPool(new TestFactory(), PoolConfig.get().directHandoff(true));
+		final CountDownLatch done = new CountDownLatch(1);
+		ExecutorService es = Executors.newSingleThreadExecutor();
+		try {
+			IPooledObject<String> held = pool.borrow(POOL_KEY);
+			Future<IPooledObject<String>> waiter = es.submit(new Callable<IPooledObject<String>>() {
+				public IPooledObject<String> call() throws Exception {
+					IPooledObject<String> obj = pool.borrow(POOL_KEY, 5, TimeUnit.SECONDS);
+					done.await();
+					obj.release();
+					return obj;
+				}
+			});
+			while (pool.getPoolMetrics().getWaitingCount() == 0)
+				Thread.sleep(1);
+
+			held.release();
+			CompletableFuture<IPooledObject<String>> barging = pool.borrowAsync(POOL_KEY);
+			assertFalse(barging.isDone());
+
+			done.countDown();
+			assertSame(waiter.get(), held);
+			assertSame(barging.get(5, TimeUnit.SECONDS), held);
+			barging.get().release();
+		} finally {
+			es.shutdownNow();
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that a token borrow is re-entrant for the token across threads and that without thread ownership a thread is not re-entrant
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void tokenOwnership() throws Exception {
+		final IKeyedObjectPool<String, String> pool = Pools.createPool(new TestFactory(), PoolConfig.get().threadOwnership(false));
+		final BorrowToken token = BorrowToken.create("unit of work");
+		ExecutorService es = Executors.newSingleThreadExecutor();
+		try {
+			IPooledObject<String> obj = pool.borrow(token, POOL_KEY);
+			IPooledObject<String> fromOtherThread = es.submit(new Callable<IPooledObject<String>>() {
+				public IPooledObject<String> call() throws Exception {
+					return pool.borrow(token, POOL_KEY, 1, TimeUnit.SECONDS);
+				}
+			}).get();
+			assertSame(fromOtherThread, obj);
+
+			try {
+				pool.borrow(POOL_KEY, 50, TimeUnit.MILLISECONDS);
+				fail("Untracked borrow should not be re-entrant");
+			} catch (TimeoutException e) {
+				// expected
+			}
+
+			obj.release();
+			pool.borrow(POOL_KEY).release();
+		} finally {
+			es.shutdownNow();
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that clear destroys the idle object of a key in the background and the borrowed object of a key once it is released
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void clearDestroysIdleAndReleasedObjects() throws Exception {
+		final CountDownLatch destroyed = new CountDownLatch(2);
+		final IKeyedObjectPool<String, String> pool = Pools.createPool(new TestFactory() {
+			public void destroy(String object) {
+				destroyed.countDown();
+			}
+		}, PoolConfig.get().threadOwnership(false));
+		try {
+			IPooledObject<String> idle = pool.borrow(POOL_KEY);
+			idle.release();
+			IPooledObject<String> borrowed = pool.borrow(POOL_KEY2);
+
+			pool.clear(POOL_KEY);
+			pool.clear(POOL_KEY2);
+			IPooledObject<String> recreated = pool.borrow(POOL_KEY, 1, TimeUnit.SECONDS);
+			assertFalse(recreated.get() == idle.get());
+			recreated.release();
+
+			borrowed.release();
+			assertTrue(destroyed.await(5, TimeUnit.SECONDS));
+			assertFalse(pool.borrow(POOL_KEY2, 1, TimeUnit.SECONDS).get() == borrowed.get());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that with a lifecycle executor release and invalidate return while passivate and destroy are still running and that a released object is
+	 * only handed out again once it has been passivated
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void lifecycleExecutorRunsPassivateAndDestroy() throws Exception {
+		final CountDownLatch passivating = new CountDownLatch(1);
+		final CountDownLatch destroyed = new CountDownLatch(1);
+		ExecutorService lifecycle = Executors.newSingleThreadExecutor();
+		IKeyedObjectPool<String, String> pool = Pools.createPool(new TestFactory() {
+			public void passivate(String object) {
+				try {
+					passivating.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			public void destroy(String object) {
+				destroyed.countDown();
+			}
+		}, PoolConfig.get().threadOwnership(false).lifecycleExecutor(lifecycle));
+		try {
+			pool.borrow(POOL_KEY).release();
+			CompletableFuture<IPooledObject<String>> next = pool.borrowAsync(POOL_KEY);
+			Thread.sleep(50);
+			assertFalse(next.isDone());
+
+			passivating.countDown();
+			IPooledObject<String> obj = next.get(5, TimeUnit.SECONDS);
+			obj.invalidate();
+			assertTrue(destroyed.await(5, TimeUnit.SECONDS));
+		} finally {
+			passivating.countDown();
+			lifecycle.shutdownNow();
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that releasing the same borrow twice passivates and returns the object only once, even while the first release is still being passivated
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void duplicateReleaseIsIgnored() throws Exception {
+		final List<Runnable> passivations = new ArrayList<Runnable>();
+		IKeyedObjectPool.Single<String, String> pool = Pools.createPool(new TestFactory(), PoolConfig.get().threadOwnership(false).lifecycleExecutor(new Executor() {
+			public void execute(Runnable task) {
+				passivations.add(task);
+			}
+		}));
+		try {
+			IPooledObject<String> obj = pool.borrow(POOL_KEY);
+			obj.release();
+			obj.release();
+			assertEquals(passivations.size(), 1);
+			passivations.get(0).run();
+			obj.release();
+
+			PoolMetrics.Counters counters = pool.getPoolMetrics().getCounters();
+			assertEquals(counters.getReleases(), 1);
+			assertEquals(counters.getPassivations(), 1);
+			assertSame(pool.tryBorrow(POOL_KEY), obj);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that an object whose passivation fails on the lifecycle executor is destroyed and counted as released only, not invalidated as well
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void failedPassivationIsNotCountedTwice() throws Exception {
+		IKeyedObjectPool.Single<String, String> pool = Pools.createPool(new TestFactory() {
+			public void passivate(String object) {
+				throw new IllegalStateException("passivate failed");
+			}
+		}, PoolConfig.get().threadOwnership(false).lifecycleExecutor(new Executor() {
+			public void execute(Runnable task) {
+				task.run();
+			}
+		}));
+		try {
+			IPooledObject<String> obj = pool.borrow(POOL_KEY);
+			obj.release();
+
+			PoolMetrics.Counters counters = pool.getPoolMetrics().getCounters();
+			assertEquals(counters.getBorrows(), 1);
+			assertEquals(counters.getReleases(), 1);
+			assertEquals(counters.getInvalidations(), 0);
+			assertEquals(counters.getDestroys(), 1);
+			assertEquals(pool.getPoolMetrics().getBorrowedCount(), 0);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that a batch borrow takes nothing when one of its keys times out and completes once the busy key is released
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void borrowAllIsAllOrNothing() throws Exception {
+		final IKeyedObjectPool<String, String> pool = Pools.createPool(new TestFactory(), PoolConfig.get().threadOwnership(false));
+		ExecutorService es = Executors.newSingleThreadExecutor();
+		try {
+			IPooledObject<String> busy = pool.borrow(POOL_KEY2);
+			try {
+				pool.borrowAll(Arrays.asList(POOL_KEY, POOL_KEY2), 100, TimeUnit.MILLISECONDS);
+				fail("Batch should not complete while a key is borrowed");
+			} catch (TimeoutException e) {
+				// expected
+			}
+			pool.borrow(POOL_KEY, 50, TimeUnit.MILLISECONDS).release();
+
+			Future<Map<String, IPooledObject<String>>> batch = es.submit(new Callable<Map<String, IPooledObject<String>>>() {
+				public Map<String, IPooledObject<String>> call() throws Exception {
+					return pool.borrowAll(Arrays.asList(POOL_KEY2, POOL_KEY, POOL_KEY2), 5, TimeUnit.SECONDS);
+				}
+			});
+			Thread.sleep(50);
+			assertFalse(batch.isDone());
+			busy.release();
+
+			Map<String, IPooledObject<String>> borrowed = batch.get(5, TimeUnit.SECONDS);
+			assertEquals(borrowed.keySet(), new HashSet<String>(Arrays.asList(POOL_KEY, POOL_KEY2)));
+			pool.releaseAll(borrowed.values());
+			pool.borrow(POOL_KEY2, 50, TimeUnit.MILLISECONDS).release();
+		} finally {
+			es.shutdownNow();
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that tryBorrow returns null instead of waiting while another thread holds the object and is re-entrant for the owner
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void tryBorrowDoesNotWait() throws Exception {
+		final IKeyedObjectPool<String, String> pool = Pools.createPool(new TestFactory());
+		ExecutorService es = Executors.newSingleThreadExecutor();
+		try {
+			IPooledObject<String> obj = pool.tryBorrow(POOL_KEY);
+			assertNotNull(obj);
+			assertSame(pool.tryBorrow(POOL_KEY), obj);
+
+			Callable<IPooledObject<String>> tryBorrow = new Callable<IPooledObject<String>>() {
+				public IPooledObject<String> call() throws Exception {
+					return pool.tryBorrow(POOL_KEY);
+				}
+			};
+			assertEquals(es.submit(tryBorrow).get(), null);
+
+			obj.release();
+			IPooledObject<String> fromOtherThread = es.submit(tryBorrow).get();
+			assertSame(fromOtherThread.get(), obj.get());
+			fromOtherThread.release();
+		} finally {
+			es.shutdownNow();
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that a blocked borrower can be interrupted and that its waiter is reused for the next borrow of the thread
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void interruptedBorrowerLeavesQueue() throws Exception {
+		final IKeyedObjectPool.Single<String, String> pool = Pools.createPool(new TestFactory());
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		IPooledObject<String> obj = pool.borrow(POOL_KEY);
+		try {
+			Thread borrower = new Thread(new Runnable() {
+				public void run() {
+					try {
+						pool.borrow(POOL_KEY);
+					} catch (Exception e) {
+						failure.set(e);
+					}
+					try {
+						// the same waiter, now parked until the deadline
+						pool.borrow(POOL_KEY, 50, TimeUnit.MILLISECONDS);
+					} catch (TimeoutException e) {
+						// expected
+					} catch (Exception e) {
+						failure.set(e);
+					}
+				}
+			});
+			borrower.start();
+			Thread.sleep(50);
+			borrower.interrupt();
+			borrower.join(5000);
+			assertFalse(borrower.isAlive());
+			assertTrue(failure.get() instanceof InterruptedException);
+			assertEquals(pool.getPoolMetrics().getWaitingCount(), 0);
+		} finally {
+			obj.release();
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that waiters which time out are unlinked from the middle of the wait queue and that the remaining waiter still receives the object
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void timedOutWaitersAreUnlinked() throws Exception {
+		final IKeyedObjectPool.Single<String, String> pool = Pools.createPool(new TestFactory(), PoolConfig.get().threadOwnership(false));
+		ExecutorService es = Executors.newCachedThreadPool();
+		try {
+			IPooledObject<String> obj = pool.borrow(POOL_KEY);
+			final AtomicInteger timeouts = new AtomicInteger();
+			Callable<IPooledObject<String>> shortWait = new Callable<IPooledObject<String>>() {
+				public IPooledObject<String> call() throws Exception {
+					try {
+						return pool.borrow(POOL_KEY, 100, TimeUnit.MILLISECONDS);
+					} catch (TimeoutException e) {
+						timeouts.incrementAndGet();
+						return null;
+					}
+				}
+			};
+			Future<?>[] early = new Future<?>[32];
+			for (int i = 0; i < early.length; i++)
+				early[i] = es.submit(shortWait);
+			Future<IPooledObject<String>> patient = es.submit(new Callable<IPooledObject<String>>() {
+				public IPooledObject<String> call() throws Exception {
+					return pool.borrow(POOL_KEY, 10, TimeUnit.SECONDS);
+				}
+			});
+			Future<?>[] late = new Future<?>[32];
+			for (int i = 0; i < late.length; i++)
+				late[i] = es.submit(shortWait);
+
+			for (Future<?> f : early)
+				f.get();
+			for (Future<?> f : late)
+				f.get();
+			assertEquals(timeouts.get(), early.length + late.length);
+			assertEquals(pool.getPoolMetrics().getWaitingCount(), 1);
+
+			obj.release();
+			patient.get(5, TimeUnit.SECONDS).release();
+			assertEquals(pool.getPoolMetrics().getWaitingCount(), 0);
+		} finally {
+			es.shutdownNow();
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that queued waiters are served oldest first under the FIFO policy and newest first under the LIFO policy
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void waitersAreServedInPolicyOrder() throws Exception {
+		int[] priorities = { 0, 0, 0 };
+		long[] timeouts = { 5, 5, 5 };
+		assertEquals(serveOrder(FairnessPolicy.FIFO, priorities, timeouts), Arrays.asList(0, 1, 2));
+		assertEquals(serveOrder(FairnessPolicy.LIFO, priorities, timeouts), Arrays.asList(2, 1, 0));
+	}
+
+	/**
+	 * Tests that waiters of a higher priority are served first and that the EDF policy serves waiters of the same priority by deadline
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void waitersAreServedByPriorityAndDeadline() throws Exception {
+		assertEquals(serveOrder(FairnessPolicy.FIFO, new int[] { 0, 1, 0, 2 }, new long[] { 5, 5, 5, 5 }), Arrays.asList(3, 1, 0, 2));
+		assertEquals(serveOrder(FairnessPolicy.EDF, new int[] { 0, 0, 0, 1 }, new long[] { 9, 0, 5, 7 }), Arrays.asList(3, 2, 0, 1));
+	}
+
+	/**
+	 * Queues one waiter per entry of {@code priorities}, in order, and returns the order in which they were served
+	 *
+	 * @param timeouts the timeout of each waiter in seconds, 0 for none
+	 */
+	private List<Integer> serveOrder(FairnessPolicy fairness, final int[] priorities, final long[] timeouts) throws Exception {
+		final IKeyedObjectPool.Single<String, String> pool = Pools.createPool(new TestFactory(), PoolConfig.get().threadOwnership(false).fairness(fairness));
+		final List<Integer> served = Collections.synchronizedList(new ArrayList<Integer>());
+		ExecutorService es = Executors.newCachedThreadPool();
+		try {
+			IPooledObject<String> obj = pool.borrow(POOL_KEY);
+			Future<?>[] waiters = new Future<?>[priorities.length];
+			for (int i = 0; i < waiters.length; i++) {
+				final int index = i;
+				waiters[i] = es.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						IPooledObject<String> o = pool.borrow(POOL_KEY, priorities[index], timeouts[index], TimeUnit.SECONDS);
+						served.add(index);
+						o.release();
+						return null;
+					}
+				});
+				// queue the waiters one at a time so their arrival order is known
+				while (pool.getPoolMetrics().getWaitingCount() < i + 1)
+					Thread.sleep(1);
+			}
+			obj.release();
+			for (Future<?> f : waiters)
+				f.get(10, TimeUnit.SECONDS);
+			return served;
+		} finally {
+			es.shutdownNow();
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that wait, hold and factory latencies are recorded for the pool and per key when enabled
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void latenciesAreRecorded() throws Exception {
+		IKeyedObjectPool.Single<String, String> plain = Pools.createPool(new TestFactory());
+		plain.borrow(POOL_KEY).release();
+		assertEquals(plain.getPoolMetrics().getLatencies(), null);
+		plain.shutdown();
+
+		IKeyedObjectPool.Single<String, String> pool = Pools.createPool(new TestFactory(), PoolConfig.get().recordKeyLatencies(true));
+		try {
+			IPooledObject<String> obj = pool.borrow(POOL_KEY);
+			Thread.sleep(20);
+			obj.release();
+			pool.borrow(POOL_KEY).release();
+			obj = pool.borrow(POOL_KEY);
+			obj.invalidate();
+
+			PoolMetrics.Latencies latencies = pool.getPoolMetrics().getLatencies();
+			assertNotNull(latencies);
+			assertEquals(latencies.getWait().getCount(), 3);
+			assertEquals(latencies.getHold().getCount(), 3);
+			assertEquals(latencies.getCreate().getCount(), 1);
+			assertEquals(latencies.getActivate().getCount(), 2);
+			assertEquals(latencies.getDestroy().getCount(), 1);
+			assertTrue(latencies.getHold().getMax() >= TimeUnit.MILLISECONDS.toNanos(20));
+			assertTrue(latencies.getHold().getP999() <= latencies.getHold().getMax());
+			// the key was dropped along with its only object
+			assertEquals(pool.getPoolMetrics().getKeyLatencies(POOL_KEY), null);
+
+			pool.borrow(POOL_KEY).release();
+			assertEquals(pool.getPoolMetrics().getKeyLatencies(POOL_KEY).getHold().getCount(), 1);
+
+			// an opportunistic borrow never waits but is sampled like every other borrow
+			pool.tryBorrow(POOL_KEY).release();
+			assertEquals(pool.getPoolMetrics().getKeyLatencies(POOL_KEY).getWait().getCount(), 2);
+			assertEquals(pool.getPoolMetrics().getCounters().getBorrows(), pool.getPoolMetrics().getLatencies().getWait().getCount());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that every borrow, release, invalidation, factory call, timeout and cancelled wait is counted once and objects no borrower received are not
+	 * counted as released
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void lifecycleCountersAreRecorded() throws Exception {
+		IKeyedObjectPool.Single<String, String> pool = Pools.createPool(new TestFactory(), PoolConfig.get().threadOwnership(false));
+		try {
+			IPooledObject<String> obj = pool.borrow(POOL_KEY);
+			try {
+				pool.borrow(POOL_KEY, 10, TimeUnit.MILLISECONDS);
+				fail("Expected TimeoutException");
+			} catch (TimeoutException e) {
+				// expected
+			}
+			CompletableFuture<IPooledObject<String>> cancelled = pool.borrowAsync(POOL_KEY);
+			cancelled.cancel(false);
+			obj.release();
+			pool.borrow(POOL_KEY).release();
+			pool.borrow(POOL_KEY).invalidate();
+
+			PoolMetrics.Counters counters = pool.getPoolMetrics().getCounters();
+			assertEquals(counters.getBorrows(), 3);
+			assertEquals(counters.getReleases(), 2);
+			assertEquals(counters.getInvalidations(), 1);
+			assertEquals(counters.getCreates(), 1);
+			assertEquals(counters.getDestroys(), 1);
+			assertEquals(counters.getTimeouts(), 1);
+			assertEquals(counters.getActivations(), 2);
+			assertEquals(counters.getPassivations(), 2);
+			assertEquals(counters.getCancelledWaits(), 1);
+
+			// an object created into the pool was never borrowed, so it is not released either
+			pool.prewarm(Arrays.asList(POOL_KEY2), 1).get(5, TimeUnit.SECONDS);
+			counters = pool.getPoolMetrics().getCounters();
+			assertEquals(counters.getCreates(), 2);
+			assertEquals(counters.getReleases(), 2);
+			assertEquals(counters.getPassivations(), 2);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that the listener receives exactly one event per borrow, release, invalidation, creation, destruction, timeout and wait
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void listenerReceivesEvents() throws Exception {
+		final List<PoolEvent<String>> events = Collections.synchronizedList(new ArrayList<PoolEvent<String>>());
+		final Map<PoolEvent.Type, AtomicInteger> counts = new ConcurrentHashMap<PoolEvent.Type, AtomicInteger>();
+		for (PoolEvent.Type type : PoolEvent.Type.values())
+			counts.put(type, new AtomicInteger());
+		PoolListener<String> listener = new PoolListener<String>() {
+			public void onEvents(List<PoolEvent<String>> batch, long dropped) {
+				for (PoolEvent<String> event : batch) {
+					events.add(event);
+					counts.get(event.getType()).incrementAndGet();
+				}
+			}
+		};
+		IKeyedObjectPool.Single<String, String> pool = Pools.createPool(new TestFactory(), PoolConfig.get().threadOwnership(false).listener(listener));
+		try {
+			IPooledObject<String> obj = pool.borrow(POOL_KEY);
+			try {
+				pool.borrow(POOL_KEY, 10, TimeUnit.MILLISECONDS);
+				fail("Expected TimeoutException");
+			} catch (TimeoutException e) {
+				// expected
+			}
+			Thread.sleep(20);
+			obj.release();
+			pool.borrow(POOL_KEY).invalidate();
+
+			long deadline = System.currentTimeMillis() + 5000;
+			while (counts.get(PoolEvent.Type.DESTROYED).get() == 0 && System.currentTimeMillis() < deadline)
+				Thread.sleep(5);
+			assertEquals(counts.get(PoolEvent.Type.BORROWED).get(), 2);
+			assertEquals(counts.get(PoolEvent.Type.CREATED).get(), 1);
+			assertEquals(counts.get(PoolEvent.Type.RELEASED).get(), 1);
+			assertEquals(counts.get(PoolEvent.Type.INVALIDATED).get(), 1);
+			assertEquals(counts.get(PoolEvent.Type.DESTROYED).get(), 1);
+			assertEquals(counts.get(PoolEvent.Type.TIMED_OUT).get(), 1);
+			// only the borrow which timed out had to wait, the first borrow created the object and the last one took it lock free
+			assertEquals(counts.get(PoolEvent.Type.WAITED).get(), 1);
+			for (PoolEvent<String> event : events) {
+				assertEquals(event.getKey(), POOL_KEY);
+				if (event.getType() == PoolEvent.Type.RELEASED)
+					assertTrue(event.getDurationNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+				if (event.getType() == PoolEvent.Type.TIMED_OUT)
+					assertTrue(event.getDurationNanos() >= TimeUnit.MILLISECONDS.toNanos(10));
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that events are delivered again once the executor stopped rejecting deliveries and the events of the rejected delivery are reported as dropped
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void listenerSurvivesRejectedDelivery() throws Exception {
+		final AtomicBoolean rejecting = new AtomicBoolean(true);
+		final AtomicLong dropped = new AtomicLong();
+		final CountDownLatch delivered = new CountDownLatch(1);
+		PoolListener<String> listener = new PoolListener<String>() {
+			public void onEvents(List<PoolEvent<String>> batch, long lost) {
+				dropped.addAndGet(lost);
+				delivered.countDown();
+			}
+		};
+		Executor executor = new Executor() {
+			public void execute(Runnable task) {
+				if (rejecting.get())
+					throw new RejectedExecutionException();
+				task.run();
+			}
+		};
+		IKeyedObjectPool.Single<String, String> pool = Pools.createPool(new TestFactory(),
+				PoolConfig.get().threadOwnership(false).lifecycleExecutor(executor).listener(listener));
+		try {
+			IPooledObject<String> obj = pool.borrow(POOL_KEY);
+			Thread.sleep(50);
+			rejecting.set(false);
+			obj.release();
+			assertTrue(delivered.await(5, TimeUnit.SECONDS));
+			// the borrow and the creation were lost with the rejected delivery
+			assertEquals(dropped.get(), 2);
+		} finally {
+			rejecting.set(false);
+			pool.shutdown();
+		}
+	}
+
 	static class TestLifecycleFactory implements
 			IPoolObjectFactory<String, Boolean> {
 		int lifecycleCount;
@@ -0,0 +1,104 @@
+package org.paceys.kbop.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pacesys.kbop.IKeyedObjectPool;
+import org.pacesys.kbop.IPooledObject;
+import org.pacesys.kbop.PoolConfig;
+import org.pacesys.kbop.Pools;
+
+/**
+ * Measures the bytes allocated per borrow/release on the hot paths of the pools.  Allocations are read from the per thread allocation counter of the
+ * JVM, only the worker threads are accounted for.  A steady state borrow of an existing object should report 0 bytes/op for the single pool fast path,
+ * tryBorrow, the multi pool and a blocking borrow which has to wait.
+ *
+ * Not part of the test suite.  Requires a HotSpot based JVM.  Run after {@code mvn test-compile} with:
+ * <pre>
+ * java -cp target/classes:target/test-classes org.paceys.kbop.bench.AllocationBenchmark [iterations]
+ * </pre>
+ *
+ * @author Jeremy Unruh
+ */
+public class AllocationBenchmark {
+
+	private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	public static void main(String[] args) throws Exception {
+		int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+
+		System.out.printf("iterations=%d%n", iterations);
+		System.out.printf("%-24s %8s %12s%n", "path", "threads", "bytes/op");
+
+		for (int round = 0; round < 2; round++) {
+			// the first round warms up the JIT so escape analysis has kicked in when measuring
+			boolean print = round > 0;
+			report(print, "single borrow", 1, run(Pools.createPool(ContentionBenchmark.factory()), 1, iterations, Mode.BORROW));
+			report(print, "single tryBorrow", 1, run(Pools.createPool(ContentionBenchmark.factory()), 1, iterations, Mode.TRY_BORROW));
+			report(print, "multi borrow", 1, run(Pools.createMultiPool(ContentionBenchmark.factory(), 4), 1, iterations, Mode.BORROW));
+			report(print, "single borrow (waiting)", 2, run(Pools.createPool(ContentionBenchmark.factory(), PoolConfig.get().threadOwnership(false)), 2,
+					iterations / 10, Mode.BORROW));
+		}
+	}
+
+	enum Mode { BORROW, TRY_BORROW }
+
+	private static void report(boolean print, String path, int threads, double bytesPerOp) {
+		if (print)
+			System.out.printf("%-24s %8d %12.1f%n", path, threads, bytesPerOp);
+	}
+
+	/**
+	 * Every thread borrows and releases the same key so with more than one thread the borrowers have to wait for each other
+	 *
+	 * @return the bytes allocated by the worker threads per borrow/release
+	 */
+	static double run(final IKeyedObjectPool<Integer, String> pool, int threads, final int iterations, final Mode mode) throws Exception {
+		final Integer key = 1;
+		final AtomicLong allocated = new AtomicLong();
+		final CountDownLatch ready = new CountDownLatch(threads);
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch finished = new CountDownLatch(threads);
+
+		pool.borrow(key).release();
+		for (int i = 0; i < threads; i++) {
+			new Thread(new Runnable() {
+				public void run() {
+					try {
+						long tid = Thread.currentThread().getId();
+						// warm up the thread's waiter and the code paths before measuring
+						for (int n = 0; n < 1000; n++)
+							borrowAndRelease(pool, key, mode);
+						ready.countDown();
+						start.await();
+						long before = THREADS.getThreadAllocatedBytes(tid);
+						for (int n = 0; n < iterations; n++)
+							borrowAndRelease(pool, key, mode);
+						allocated.addAndGet(THREADS.getThreadAllocatedBytes(tid) - before);
+					} catch (Exception e) {
+						e.printStackTrace();
+					} finally {
+						finished.countDown();
+					}
+				}
+			}).start();
+		}
+		ready.await();
+		start.countDown();
+		finished.await();
+		pool.shutdown();
+		return (double) allocated.get() / ((long) iterations * threads);
+	}
+
+	private static void borrowAndRelease(IKeyedObjectPool<Integer, String> pool, Integer key, Mode mode) throws Exception {
+		IPooledObject<String> obj;
+		if (mode == Mode.TRY_BORROW) {
+			while ((obj = pool.tryBorrow(key)) == null)
+				Thread.yield();
+		}
+		else
+			obj = pool.borrow(key);
+		obj.release();
+	}
+}
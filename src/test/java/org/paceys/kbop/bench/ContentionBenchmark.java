@@ -0,0 +1,110 @@
+package org.paceys.kbop.bench;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pacesys.kbop.IKeyedObjectPool;
+import org.pacesys.kbop.IPoolObjectFactory;
+import org.pacesys.kbop.IPooledObject;
+import org.pacesys.kbop.PoolConfig;
+import org.pacesys.kbop.PoolKey;
+import org.pacesys.kbop.Pools;
+
+/**
+ * Measures borrow/release throughput across many keys as the number of worker threads grows.  Each run is executed against a pool with a
+ * single lock stripe (equivalent to one pool wide lock) and against the default striping so the scaling of both can be compared.
+ *
+ * Not part of the test suite.  Run after {@code mvn test-compile} with:
+ * <pre>
+ * java -cp target/classes:target/test-classes org.paceys.kbop.bench.ContentionBenchmark [keys] [secondsPerRun]
+ * </pre>
+ *
+ * @author Jeremy Unruh
+ */
+public class ContentionBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int keys = (args.length > 0) ? Integer.parseInt(args[0]) : 4096;
+		long runMillis = ((args.length > 1) ? Long.parseLong(args[1]) : 2) * 1000;
+		int maxThreads = Runtime.getRuntime().availableProcessors() * 2;
+
+		System.out.printf("keys=%d, run=%dms, cores=%d%n", keys, runMillis, Runtime.getRuntime().availableProcessors());
+		System.out.printf("%-8s %-8s %8s %16s%n", "pool", "stripes", "threads", "ops/sec");
+
+		for (int threads = 1; threads <= maxThreads; threads <<= 1) {
+			for (int stripes : new int[] { 1, 0 }) {
+				PoolConfig config = PoolConfig.get();
+				if (stripes > 0)
+					config.lockStripes(stripes);
+
+				String label = (stripes > 0) ? String.valueOf(stripes) : "default";
+				report("single", label, threads, run(Pools.createPool(factory(), config), keys, threads, runMillis));
+				report("multi", label, threads, run(Pools.createMultiPool(factory(), 4, config), keys, threads, runMillis));
+			}
+		}
+	}
+
+	private static void report(String pool, String stripes, int threads, long opsPerSecond) {
+		System.out.printf("%-8s %-8s %8d %16d%n", pool, stripes, threads, opsPerSecond);
+	}
+
+	static long run(final IKeyedObjectPool<Integer, String> pool, final int keys, int threads, long runMillis) throws Exception {
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicLong ops = new AtomicLong();
+		final CountDownLatch started = new CountDownLatch(threads);
+		final CountDownLatch finished = new CountDownLatch(threads);
+
+		for (int i = 0; i < threads; i++) {
+			final long seed = i;
+			Thread t = new Thread(new Runnable() {
+				public void run() {
+					Random random = new Random(seed);
+					long count = 0;
+					started.countDown();
+					try {
+						while (running.get()) {
+							IPooledObject<String> obj = pool.borrow(random.nextInt(keys));
+							obj.release();
+							count++;
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+					} finally {
+						ops.addAndGet(count);
+						finished.countDown();
+					}
+				}
+			});
+			t.setDaemon(true);
+			t.start();
+		}
+
+		started.await();
+		long start = System.nanoTime();
+		Thread.sleep(runMillis);
+		running.set(false);
+		finished.await();
+		long elapsed = System.nanoTime() - start;
+		pool.shutdown();
+		return (long) (ops.get() / (elapsed / 1e9));
+	}
+
+	static IPoolObjectFactory<Integer, String> factory() {
+		return new IPoolObjectFactory<Integer, String>() {
+			public String create(PoolKey<Integer> key) {
+				return "Object : " + key.get();
+			}
+
+			public void activate(String object) {
+			}
+
+			public void passivate(String object) {
+			}
+
+			public void destroy(String object) {
+			}
+		};
+	}
+}
@@ -0,0 +1,149 @@
+package org.paceys.kbop.bench;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.pacesys.kbop.FairnessPolicy;
+import org.pacesys.kbop.IKeyedObjectPool;
+import org.pacesys.kbop.IPooledObject;
+import org.pacesys.kbop.PoolConfig;
+import org.pacesys.kbop.Pools;
+
+/**
+ * Compares the wait time distribution and throughput of the fairness policies.  More threads than there are objects borrow a handful of keys, hold the
+ * object for a short while and release it, so most borrows have to wait.  The time every borrow spends in {@code borrow} is recorded and the p50, p99
+ * and p999 wait times are reported per policy along with the throughput.
+ *
+ * Not part of the test suite.  Run after {@code mvn test-compile} with:
+ * <pre>
+ * java -cp target/classes:target/test-classes org.paceys.kbop.bench.FairnessBenchmark [threads] [secondsPerRun]
+ * </pre>
+ *
+ * @author Jeremy Unruh
+ */
+public class FairnessBenchmark {
+
+	private static final int KEYS = 4;
+	private static final int OBJECTS_PER_KEY = 2;
+	private static final int MAX_SAMPLES = 1 << 20;
+
+	public static void main(String[] args) throws Exception {
+		int threads = (args.length > 0) ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() * 4;
+		long runMillis = ((args.length > 1) ? Long.parseLong(args[1]) : 3) * 1000;
+
+		System.out.printf("threads=%d, keys=%d, run=%dms, cores=%d%n", threads, KEYS, runMillis, Runtime.getRuntime().availableProcessors());
+		System.out.printf("%-8s %-8s %12s %10s %10s %10s %10s%n", "pool", "policy", "ops/sec", "p50 us", "p99 us", "p999 us", "max us");
+
+		for (int round = 0; round < 2; round++) {
+			// the first round warms up the JIT
+			boolean print = round > 0;
+			for (FairnessPolicy fairness : FairnessPolicy.values()) {
+				PoolConfig config = PoolConfig.get().threadOwnership(false).fairness(fairness);
+				report(print, "single", fairness, run(Pools.createPool(ContentionBenchmark.factory(), config), threads, runMillis));
+				report(print, "multi", fairness, run(Pools.createMultiPool(ContentionBenchmark.factory(), OBJECTS_PER_KEY, config), threads, runMillis));
+			}
+		}
+	}
+
+	private static void report(boolean print, String pool, FairnessPolicy fairness, Result result) {
+		if (print)
+			System.out.printf("%-8s %-8s %12d %10.1f %10.1f %10.1f %10.1f%n", pool, fairness, result.opsPerSecond, micros(result.percentile(0.50)),
+					micros(result.percentile(0.99)), micros(result.percentile(0.999)), micros(result.percentile(1.0)));
+	}
+
+	private static double micros(long nanos) {
+		return nanos / 1000.0;
+	}
+
+	static Result run(final IKeyedObjectPool<Integer, String> pool, int threads, long runMillis) throws Exception {
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final CountDownLatch started = new CountDownLatch(threads);
+		final CountDownLatch finished = new CountDownLatch(threads);
+		final long[][] samples = new long[threads][];
+		final int[] counts = new int[threads];
+		final long[] ops = new long[threads];
+
+		for (int i = 0; i < threads; i++) {
+			final int index = i;
+			samples[i] = new long[MAX_SAMPLES / threads];
+			Thread t = new Thread(new Runnable() {
+				public void run() {
+					long[] waits = samples[index];
+					int recorded = 0;
+					long count = 0;
+					started.countDown();
+					try {
+						while (running.get()) {
+							Integer key = (int) (count++ % KEYS);
+							long start = System.nanoTime();
+							IPooledObject<String> obj = pool.borrow(key);
+							long waited = System.nanoTime() - start;
+							// keeps the most recent waits once the buffer is full
+							waits[recorded++ % waits.length] = waited;
+							hold();
+							obj.release();
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+					} finally {
+						counts[index] = Math.min(recorded, waits.length);
+						ops[index] = count;
+						finished.countDown();
+					}
+				}
+			});
+			t.setDaemon(true);
+			t.start();
+		}
+
+		started.await();
+		long start = System.nanoTime();
+		Thread.sleep(runMillis);
+		running.set(false);
+		finished.await();
+		long elapsed = System.nanoTime() - start;
+		pool.shutdown();
+
+		int total = 0;
+		long totalOps = 0;
+		for (int i = 0; i < threads; i++) {
+			total += counts[i];
+			totalOps += ops[i];
+		}
+		long[] waits = new long[total];
+		int pos = 0;
+		for (int i = 0; i < threads; i++) {
+			System.arraycopy(samples[i], 0, waits, pos, counts[i]);
+			pos += counts[i];
+		}
+		Arrays.sort(waits);
+		return new Result(waits, (long) (totalOps / (elapsed / 1e9)));
+	}
+
+	/**
+	 * Simulates a few microseconds of work while holding the object
+	 */
+	private static void hold() {
+		long until = System.nanoTime() + 2000;
+		while (System.nanoTime() < until)
+			;
+	}
+
+	static class Result {
+		final long[] sortedWaits;
+		final long opsPerSecond;
+
+		Result(long[] sortedWaits, long opsPerSecond) {
+			this.sortedWaits = sortedWaits;
+			this.opsPerSecond = opsPerSecond;
+		}
+
+		long percentile(double p) {
+			if (sortedWaits.length == 0)
+				return 0;
+			int index = (int) Math.ceil(p * sortedWaits.length) - 1;
+			return sortedWaits[Math.max(0, Math.min(index, sortedWaits.length - 1))];
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package org.paceys.kbop.bench;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.pacesys.kbop.IKeyedObjectPool;
+import org.pacesys.kbop.IPooledObject;
+import org.pacesys.kbop.PoolKey;
+import org.pacesys.kbop.internal.KeyedMultiObjectPool;
+import org.pacesys.kbop.internal.KeyedSingleObjectPool;
+
+/**
+ * Compares uncontended borrow/release of the lock free fast path against the locked path.  The locked path is forced by a pool which always reports
+ * waiters, which is the only condition under which the lock is taken for an existing idle object.  Every thread borrows and releases its own key so
+ * no two threads ever contend for the same object.  The single and the multi pool are measured, the latter holding up to {@value #MAX_PER_KEY} objects
+ * per key.
+ *
+ * Not part of the test suite.  Run after {@code mvn test-compile} with:
+ * <pre>
+ * java -cp target/classes:target/test-classes org.paceys.kbop.bench.FastPathBenchmark [iterations]
+ * </pre>
+ *
+ * @author Jeremy Unruh
+ */
+public class FastPathBenchmark {
+
+	private static final int MAX_PER_KEY = 8;
+
+	public static void main(String[] args) throws Exception {
+		int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 5000000;
+		int maxThreads = Runtime.getRuntime().availableProcessors();
+
+		System.out.printf("iterations/thread=%d, cores=%d%n", iterations, maxThreads);
+		System.out.printf("%-8s %-8s %8s %12s %16s%n", "pool", "path", "threads", "ns/op", "ops/sec");
+
+		for (int threads = 1; threads <= maxThreads; threads <<= 1) {
+			// warm up all paths before measuring
+			run(fastPool(), threads, iterations / 10);
+			run(lockedPool(), threads, iterations / 10);
+			run(fastMultiPool(), threads, iterations / 10);
+			run(lockedMultiPool(), threads, iterations / 10);
+
+			report("single", "cas", threads, iterations, run(fastPool(), threads, iterations));
+			report("single", "lock", threads, iterations, run(lockedPool(), threads, iterations));
+			report("multi", "cas", threads, iterations, run(fastMultiPool(), threads, iterations));
+			report("multi", "lock", threads, iterations, run(lockedMultiPool(), threads, iterations));
+		}
+	}
+
+	private static void report(String pool, String path, int threads, int iterations, long elapsedNanos) {
+		double nsPerOp = (double) elapsedNanos / iterations;
+		System.out.printf("%-8s %-8s %8d %12.1f %16d%n", pool, path, threads, nsPerOp, (long) (threads * iterations / (elapsedNanos / 1e9)));
+	}
+
+	static IKeyedObjectPool<Integer, String> fastPool() {
+		return new KeyedSingleObjectPool<Integer, String>(ContentionBenchmark.factory());
+	}
+
+	static IKeyedObjectPool<Integer, String> lockedPool() {
+		return new KeyedSingleObjectPool<Integer, String>(ContentionBenchmark.factory()) {
+			@Override
+			protected boolean hasWaiters(PoolKey<Integer> key) {
+				return true;
+			}
+		};
+	}
+
+	static IKeyedObjectPool<Integer, String> fastMultiPool() {
+		return new KeyedMultiObjectPool<Integer, String>(ContentionBenchmark.factory(), MAX_PER_KEY);
+	}
+
+	static IKeyedObjectPool<Integer, String> lockedMultiPool() {
+		return new KeyedMultiObjectPool<Integer, String>(ContentionBenchmark.factory(), MAX_PER_KEY) {
+			@Override
+			protected boolean hasWaiters(PoolKey<Integer> key) {
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * @return the elapsed wall time in nanoseconds
+	 */
+	static long run(final IKeyedObjectPool<Integer, String> pool, int threads, final int iterations) throws Exception {
+		final CountDownLatch ready = new CountDownLatch(threads);
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch finished = new CountDownLatch(threads);
+
+		for (int i = 0; i < threads; i++) {
+			final Integer key = i;
+			new Thread(new Runnable() {
+				public void run() {
+					try {
+						// create the object up front so only borrow/release of an existing idle object is measured
+						pool.borrow(key).release();
+						ready.countDown();
+						start.await();
+						for (int n = 0; n < iterations; n++) {
+							IPooledObject<String> obj = pool.borrow(key);
+							obj.release();
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+					} finally {
+						finished.countDown();
+					}
+				}
+			}).start();
+		}
+
+		ready.await();
+		long begin = System.nanoTime();
+		start.countDown();
+		finished.await();
+		long elapsed = System.nanoTime() - begin;
+		pool.shutdown();
+		return elapsed;
+	}
+}
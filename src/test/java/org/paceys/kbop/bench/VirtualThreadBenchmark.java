@@ -0,0 +1,96 @@
+package org.paceys.kbop.bench;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pacesys.kbop.BorrowToken;
+import org.pacesys.kbop.IKeyedObjectPool;
+import org.pacesys.kbop.IPooledObject;
+import org.pacesys.kbop.PoolConfig;
+import org.pacesys.kbop.Pools;
+
+/**
+ * Starts one task per borrower (a million by default), each borrowing an object of a Multi pool, holding it briefly and releasing it.  Borrowers are
+ * either untracked (thread ownership disabled) or own their borrow via a {@link BorrowToken}.  Most borrowers have to wait as the pool holds far
+ * fewer objects than there are borrowers, which exercises the blocking wait path.
+ *
+ * Virtual threads are used when the runtime provides them (Java 21+), the project itself targets Java 8 so they are looked up reflectively.  On older
+ * runtimes the tasks run on a fixed pool of platform threads instead.  Not part of the test suite.  Run after {@code mvn test-compile} with:
+ * <pre>
+ * java -cp target/classes:target/test-classes org.paceys.kbop.bench.VirtualThreadBenchmark [borrowers] [keys] [maxPerKey]
+ * </pre>
+ *
+ * @author Jeremy Unruh
+ */
+public class VirtualThreadBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int borrowers = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+		int keys = (args.length > 1) ? Integer.parseInt(args[1]) : 64;
+		int maxPerKey = (args.length > 2) ? Integer.parseInt(args[2]) : 8;
+
+		System.out.printf("borrowers=%d, keys=%d, maxPerKey=%d, java=%s%n", borrowers, keys, maxPerKey, System.getProperty("java.version"));
+		System.out.printf("%-10s %-10s %12s %16s%n", "threads", "owner", "millis", "borrows/sec");
+
+		for (boolean tokens : new boolean[] { false, true }) {
+			ExecutorService executor = executor();
+			String threads = isVirtual(executor) ? "virtual" : "platform";
+			IKeyedObjectPool.Multi<Integer, String> pool = Pools.createMultiPool(ContentionBenchmark.factory(), maxPerKey, PoolConfig.get().threadOwnership(false));
+			try {
+				long elapsed = run(executor, pool, borrowers, keys, tokens);
+				System.out.printf("%-10s %-10s %12d %16d%n", threads, tokens ? "token" : "untracked", TimeUnit.NANOSECONDS.toMillis(elapsed),
+						(long) (borrowers / (elapsed / 1e9)));
+			} finally {
+				executor.shutdown();
+				pool.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * @return the elapsed wall time in nanoseconds
+	 */
+	static long run(ExecutorService executor, final IKeyedObjectPool<Integer, String> pool, int borrowers, final int keys, final boolean tokens) throws Exception {
+		final CountDownLatch finished = new CountDownLatch(borrowers);
+		final AtomicLong failures = new AtomicLong();
+
+		long begin = System.nanoTime();
+		for (int i = 0; i < borrowers; i++) {
+			final Integer key = i % keys;
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						IPooledObject<String> obj = tokens ? pool.borrow(BorrowToken.create(), key) : pool.borrow(key);
+						// hold the object across a yield so borrowers overlap
+						Thread.yield();
+						obj.release();
+					} catch (Exception e) {
+						failures.incrementAndGet();
+					} finally {
+						finished.countDown();
+					}
+				}
+			});
+		}
+		finished.await();
+		long elapsed = System.nanoTime() - begin;
+		if (failures.get() > 0)
+			System.out.printf("%d borrows failed%n", failures.get());
+		return elapsed;
+	}
+
+	private static ExecutorService executor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Exception e) {
+			return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 4);
+		}
+	}
+
+	private static boolean isVirtual(ExecutorService executor) {
+		return !(executor instanceof java.util.concurrent.ThreadPoolExecutor);
+	}
+}